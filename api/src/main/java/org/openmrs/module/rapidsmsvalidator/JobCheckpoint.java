@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.openmrs.BaseOpenmrsObject;
+
+/**
+ * Persistent state of a background job: its range, status, counters and the last id whose work is
+ * committed, from which it resumes after a restart.
+ */
+public class JobCheckpoint extends BaseOpenmrsObject implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer jobId;
+	
+	private String jobType;
+	
+	private Integer fromId;
+	
+	private Integer toId;
+	
+	private Integer workers;
+	
+	private String status;
+	
+	private Integer checkpoint;
+	
+	private Long processed;
+	
+	private Long failed;
+	
+	private String error;
+	
+	private Date dateCreated;
+	
+	private Date dateChanged;
+	
+	@Override
+	public Integer getId() {
+		return getJobId();
+	}
+	
+	@Override
+	public void setId(Integer id) {
+		setJobId(id);
+	}
+	
+	public Integer getJobId() {
+		return jobId;
+	}
+	
+	public void setJobId(Integer jobId) {
+		this.jobId = jobId;
+	}
+	
+	public String getJobType() {
+		return jobType;
+	}
+	
+	public void setJobType(String jobType) {
+		this.jobType = jobType;
+	}
+	
+	public Integer getFromId() {
+		return fromId;
+	}
+	
+	public void setFromId(Integer fromId) {
+		this.fromId = fromId;
+	}
+	
+	public Integer getToId() {
+		return toId;
+	}
+	
+	public void setToId(Integer toId) {
+		this.toId = toId;
+	}
+	
+	public Integer getWorkers() {
+		return workers;
+	}
+	
+	public void setWorkers(Integer workers) {
+		this.workers = workers;
+	}
+	
+	public String getStatus() {
+		return status;
+	}
+	
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	
+	public Integer getCheckpoint() {
+		return checkpoint;
+	}
+	
+	public void setCheckpoint(Integer checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	public Long getProcessed() {
+		return processed;
+	}
+	
+	public void setProcessed(Long processed) {
+		this.processed = processed;
+	}
+	
+	public Long getFailed() {
+		return failed;
+	}
+	
+	public void setFailed(Long failed) {
+		this.failed = failed;
+	}
+	
+	public String getError() {
+		return error;
+	}
+	
+	public void setError(String error) {
+		this.error = error;
+	}
+	
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
+	public Date getDateChanged() {
+		return dateChanged;
+	}
+	
+	public void setDateChanged(Date dateChanged) {
+		this.dateChanged = dateChanged;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * What a job did with one PostEncounterLog. Rows are written in batches together with the
+ * {@link JobCheckpoint} of their job.
+ */
+public class JobMessageStatus implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer jobMessageStatusId;
+	
+	private Integer jobId;
+	
+	private Integer postRequestId;
+	
+	private String outcome;
+	
+	private String detail;
+	
+	private Date dateCreated;
+	
+	public JobMessageStatus() {
+	}
+	
+	public JobMessageStatus(Integer jobId, Integer postRequestId, String outcome) {
+		this.jobId = jobId;
+		this.postRequestId = postRequestId;
+		this.outcome = outcome;
+		this.dateCreated = new Date();
+	}
+	
+	public JobMessageStatus(Integer jobId, Integer postRequestId, String outcome, String detail) {
+		this(jobId, postRequestId, outcome);
+		this.detail = detail;
+	}
+	
+	public Integer getJobMessageStatusId() {
+		return jobMessageStatusId;
+	}
+	
+	public void setJobMessageStatusId(Integer jobMessageStatusId) {
+		this.jobMessageStatusId = jobMessageStatusId;
+	}
+	
+	public Integer getJobId() {
+		return jobId;
+	}
+	
+	public void setJobId(Integer jobId) {
+		this.jobId = jobId;
+	}
+	
+	public Integer getPostRequestId() {
+		return postRequestId;
+	}
+	
+	public void setPostRequestId(Integer postRequestId) {
+		this.postRequestId = postRequestId;
+	}
+	
+	public String getOutcome() {
+		return outcome;
+	}
+	
+	public void setOutcome(String outcome) {
+		this.outcome = outcome;
+	}
+	
+	/**
+	 * @return what is wrong with the message, e.g. the problems found by a validation job
+	 */
+	public String getDetail() {
+		return detail;
+	}
+	
+	public void setDetail(String detail) {
+		this.detail = detail;
+	}
+	
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Maps a message that was applied by the notification handler to the encounter it created, so that
+ * replaying the same message again can be detected. The key is the sending application and MSH-10
+ * message control id, or a hash of the message content when there is no control id.
+ */
+public class ProcessedMessage implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer processedMessageId;
+	
+	private String messageKey;
+	
+	private Integer encounterId;
+	
+	private Date dateCreated;
+	
+	public ProcessedMessage() {
+	}
+	
+	public ProcessedMessage(String messageKey, Integer encounterId) {
+		this.messageKey = messageKey;
+		this.encounterId = encounterId;
+		this.dateCreated = new Date();
+	}
+	
+	public Integer getProcessedMessageId() {
+		return processedMessageId;
+	}
+	
+	public void setProcessedMessageId(Integer processedMessageId) {
+		this.processedMessageId = processedMessageId;
+	}
+	
+	public String getMessageKey() {
+		return messageKey;
+	}
+	
+	public void setMessageKey(String messageKey) {
+		this.messageKey = messageKey;
+	}
+	
+	public Integer getEncounterId() {
+		return encounterId;
+	}
+	
+	public void setEncounterId(Integer encounterId) {
+		this.encounterId = encounterId;
+	}
+	
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+}
@@ -1,70 +1,86 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator;
-
-
-import org.apache.commons.logging.Log; 
-import org.apache.commons.logging.LogFactory;
-import org.openmrs.module.ModuleActivator;
-
-/**
- * This class contains the logic that is run every time this module is either started or stopped.
- */
-public class RapidSMSValidatorActivator implements ModuleActivator {
-	
-	protected Log log = LogFactory.getLog(getClass());
-		
-	/**
-	 * @see ModuleActivator#willRefreshContext()
-	 */
-	public void willRefreshContext() {
-		log.info("Refreshing RapidSMS Validator Module");
-	}
-	
-	/**
-	 * @see ModuleActivator#contextRefreshed()
-	 */
-	public void contextRefreshed() {
-		log.info("RapidSMS Validator Module refreshed");
-	}
-	
-	/**
-	 * @see ModuleActivator#willStart()
-	 */
-	public void willStart() {
-		log.info("Starting RapidSMS Validator Module");
-	}
-	
-	/**
-	 * @see ModuleActivator#started()
-	 */
-	public void started() {
-		log.info("RapidSMS Validator Module started");
-	}
-	
-	/**
-	 * @see ModuleActivator#willStop()
-	 */
-	public void willStop() {
-		log.info("Stopping RapidSMS Validator Module");
-	}
-	
-	/**
-	 * @see ModuleActivator#stopped()
-	 */
-	public void stopped() {
-		log.info("RapidSMS Validator Module stopped");
-	}
-		
-}
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator;
+
+
+import org.apache.commons.logging.Log; 
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.rapidsmsvalidator.api.job.JobManager;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingMetrics;
+import org.openmrs.module.rapidsmsvalidator.api.util.Hl7Parsers;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsMetadata;
+
+/**
+ * This class contains the logic that is run every time this module is either started or stopped.
+ */
+public class RapidSMSValidatorActivator implements ModuleActivator {
+	
+	protected Log log = LogFactory.getLog(getClass());
+		
+	/**
+	 * @see ModuleActivator#willRefreshContext()
+	 */
+	public void willRefreshContext() {
+		log.info("Refreshing RapidSMS Validator Module");
+	}
+	
+	/**
+	 * @see ModuleActivator#contextRefreshed()
+	 */
+	public void contextRefreshed() {
+		log.info("RapidSMS Validator Module refreshed");
+	}
+	
+	/**
+	 * @see ModuleActivator#willStart()
+	 */
+	public void willStart() {
+		log.info("Starting RapidSMS Validator Module");
+	}
+	
+	/**
+	 * @see ModuleActivator#started()
+	 */
+	public void started() {
+		RsmsMetadata.getInstance().refresh();
+		Hl7Parsers.warmUp();
+		ProcessingMetrics metrics = ProcessingMetrics.getInstance();
+		metrics.refresh();
+		Context.getAdministrationService().addGlobalPropertyListener(metrics);
+		metrics.register();
+		JobManager.getInstance().start();
+		log.info("RapidSMS Validator Module started");
+	}
+	
+	/**
+	 * @see ModuleActivator#willStop()
+	 */
+	public void willStop() {
+		log.info("Stopping RapidSMS Validator Module");
+		JobManager.getInstance().stop();
+		ProcessingMetrics metrics = ProcessingMetrics.getInstance();
+		Context.getAdministrationService().removeGlobalPropertyListener(metrics);
+		metrics.unregister();
+	}
+	
+	/**
+	 * @see ModuleActivator#stopped()
+	 */
+	public void stopped() {
+		log.info("RapidSMS Validator Module stopped");
+	}
+		
+}
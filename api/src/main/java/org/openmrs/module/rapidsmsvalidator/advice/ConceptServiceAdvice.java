@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.advice;
+
+import java.lang.reflect.Method;
+
+import org.openmrs.module.rapidsmsvalidator.api.util.ConceptCache;
+import org.openmrs.module.rapidsmsvalidator.api.util.ObxPlans;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Clears the {@link ConceptCache} and the {@link ObxPlans} whenever a concept, concept source or
+ * mapping is changed.
+ */
+public class ConceptServiceAdvice implements AfterReturningAdvice {
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire")
+		        || name.startsWith("purge") || name.startsWith("update")) {
+			ConceptCache.getInstance().invalidate();
+			ObxPlans.getInstance().invalidate();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.advice;
+
+import java.lang.reflect.Method;
+
+import org.openmrs.module.rapidsmsvalidator.api.util.LocationIndex;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Drops the {@link LocationIndex} whenever a location is saved, retired, unretired or purged.
+ */
+public class LocationServiceAdvice implements AfterReturningAdvice {
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire")
+		        || name.startsWith("purge"))
+			LocationIndex.getInstance().invalidate();
+	}
+}
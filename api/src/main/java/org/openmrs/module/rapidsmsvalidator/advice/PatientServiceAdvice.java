@@ -0,0 +1,43 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.advice;
+
+import java.lang.reflect.Method;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Keeps the {@link PatientResolver} up to date: a saved patient or identifier is forgotten, any
+ * other change such as a void or a merge drops the whole cache.
+ */
+public class PatientServiceAdvice implements AfterReturningAdvice {
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (name.startsWith("save") && returnValue instanceof Patient)
+			PatientResolver.getInstance().forget((Patient) returnValue);
+		else if (name.startsWith("save") && returnValue instanceof PatientIdentifier)
+			PatientResolver.getInstance().forget(((PatientIdentifier) returnValue).getIdentifier());
+		else if (name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid")
+		        || name.startsWith("merge") || name.startsWith("purge") || name.startsWith("retire")
+		        || name.startsWith("unretire"))
+			PatientResolver.getInstance().invalidate();
+	}
+}
@@ -1,42 +1,285 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.api;
-
-import java.util.List;
-
-import org.openmrs.api.OpenmrsService;
-import org.openmrs.module.rheashradapter.model.PostEncounterLog;
-import org.springframework.transaction.annotation.Transactional;
-
-/**
- * This service exposes module's core functionality. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
- * <p>
- * It can be accessed only via Context:<br>
- * <code>
- * Context.getService(RapidSMSValidatorService.class).someMethod();
- * </code>
- * 
- * @see org.openmrs.api.context.Context
- */
-@Transactional
-public interface RapidSMSValidatorService extends OpenmrsService {
-     
-	/*
-	 * Add service methods here
-	 * 
-	 */
-	
-	public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId);
-	
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.APIException;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.ProcessedMessage;
+import org.openmrs.module.rapidsmsvalidator.api.replay.MessageReplayer;
+import org.openmrs.module.rapidsmsvalidator.api.replay.MessageValidator;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ParsedItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayFailedException;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ValidationResult;
+import org.openmrs.module.rheashradapter.model.PostEncounterLog;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * This service exposes module's core functionality. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
+ * <p>
+ * It can be accessed only via Context:<br>
+ * <code>
+ * Context.getService(RapidSMSValidatorService.class).someMethod();
+ * </code>
+ * 
+ * @see org.openmrs.api.context.Context
+ */
+@Transactional
+public interface RapidSMSValidatorService extends OpenmrsService {
+     
+	/*
+	 * Add service methods here
+	 * 
+	 */
+	
+	/**
+	 * Loads every log in the range in one list. Use {@link #getReplayItemPage(int, int, int, String)} (or
+	 * {@link org.openmrs.module.rapidsmsvalidator.api.replay.PostEncounterLogCursor}) for large
+	 * ranges.
+	 */
+	@Transactional(readOnly = true)
+	public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId);
+	
+	/**
+	 * Returns the postRequestId and hl7data of at most maxResults logs with afterId &lt;
+	 * postRequestId &lt;= toId, ordered by postRequestId. Only these two columns are read and no
+	 * entities are loaded into the session.
+	 * <p>
+	 * The filter is applied by the database with a LIKE prefix on hl7data, which skips the encoding
+	 * characters, so it works with any separators. It may let through some logs whose MSH-3 only
+	 * starts with the application, but never drops one that matches, so callers still check the
+	 * message. Admission types are not filtered here: PV1-4 has no fixed position a pattern could
+	 * rely on, it is checked on the raw message by
+	 * {@link org.openmrs.module.rapidsmsvalidator.api.replay.Hl7RawScanner}.
+	 * 
+	 * @param sendingApplication if not null, only logs whose MSH-3 starts with it
+	 */
+	@Transactional(readOnly = true)
+	public List<ReplayItem> getReplayItemPage(int afterId, int toId, int maxResults, String sendingApplication);
+	
+	/**
+	 * Saves a job checkpoint together with the message statuses gathered since the previous one, in
+	 * one transaction.
+	 * 
+	 * @param checkpoint the checkpoint, new or detached
+	 * @param statuses statuses to insert, may be empty
+	 * @return the saved checkpoint
+	 */
+	public JobCheckpoint saveJobCheckpoint(JobCheckpoint checkpoint, Collection<JobMessageStatus> statuses);
+	
+	/**
+	 * Deletes the message statuses a job recorded after its checkpoint, so that running it again from
+	 * the checkpoint records them once.
+	 * 
+	 * @return the number of deleted statuses
+	 */
+	public int deleteJobMessageStatuses(int jobId, int afterPostRequestId);
+	
+	/**
+	 * @return all job checkpoints, newest first
+	 */
+	@Transactional(readOnly = true)
+	public List<JobCheckpoint> getJobCheckpoints();
+	
+	/**
+	 * @param outcome if not null, only the statuses with this outcome
+	 * @return at most maxResults message statuses of a job, ordered by postRequestId
+	 */
+	@Transactional(readOnly = true)
+	public List<JobMessageStatus> getJobMessageStatuses(int jobId, String outcome, int firstResult, int maxResults);
+	
+	/**
+	 * @param messageKey see {@link ProcessedMessage}
+	 * @return the record of the message, or null if it was never applied
+	 */
+	@Transactional(readOnly = true)
+	public ProcessedMessage getProcessedMessage(String messageKey);
+	
+	/**
+	 * Looks up with one query which of several messages were already applied.
+	 * 
+	 * @param messageKeys see {@link ProcessedMessage}
+	 * @return the id of the unvoided encounter each applied message was saved as, by message key
+	 */
+	@Transactional(readOnly = true)
+	public Map<String, Integer> getAppliedEncounterIds(Collection<String> messageKeys);
+	
+	/**
+	 * Records that a message was applied as the given encounter, replacing an earlier record of the
+	 * same message.
+	 */
+	public ProcessedMessage saveProcessedMessage(String messageKey, Integer encounterId);
+	
+	/**
+	 * Inserts the new obs of saved encounters in one JDBC batch instead of one statement per obs.
+	 * The obs must not be added to their encounters, they stay transient and get no ids. The
+	 * encounters are evicted from the session, so they are read again with their obs.
+	 * <p>
+	 * The rows are written without the ObsService, so no save handlers or advice run for them: the
+	 * obs must be complete, only a missing creator is set to the authenticated user. On MySQL the
+	 * connection url needs rewriteBatchedStatements=true for the batch to be sent as one statement.
+	 */
+	public void saveObs(List<Obs> obs);
+	
+	/**
+	 * Replays a chunk of parsed logs in one transaction. The patients and providers of the whole
+	 * chunk are resolved up front, see {@link MessageReplayer#process(List)}.
+	 * 
+	 * @return the outcome of each log, in the order of items; logs without a parsed message keep the
+	 *         outcome of the parse stage
+	 * @throws ReplayFailedException if the handler fails on any log, the whole chunk is then rolled
+	 *             back
+	 * @throws APIException if the chunk fails otherwise
+	 */
+	public List<ReplayOutcome> replay(List<ParsedItem> items, MessageReplayer replayer) throws APIException;
+	
+	/**
+	 * Validates a chunk of parsed logs in a read only transaction, nothing is written, see
+	 * {@link MessageValidator}.
+	 * 
+	 * @return the result of each log, in the order of items
+	 */
+	@Transactional(readOnly = true)
+	public List<ValidationResult> validate(List<ParsedItem> items, MessageValidator validator);
+	
+	/**
+	 * @return the highest encounter id, or null if there are no encounters
+	 */
+	@Transactional(readOnly = true)
+	public Integer getMaxEncounterId();
+	
+	/**
+	 * Sets the datetime of the encounters of a type, in an encounter id window, to the datetime
+	 * value of their obs for a concept. Encounters that already have that datetime are left alone,
+	 * the others are updated with one bulk update per distinct datetime.
+	 * 
+	 * @param afterEncounterId exclusive lower bound of the window
+	 * @param toEncounterId inclusive upper bound of the window
+	 * @return the number of updated encounters
+	 */
+	public int updateEncounterDatetimesFromObs(int encounterTypeId, int conceptId, int afterEncounterId,
+	        int toEncounterId);
+	
+	/**
+	 * Voids the unvoided encounters of the given types in an encounter id window, and their obs, with
+	 * one set-based update each. Keep the window small on a live database, the updated rows stay
+	 * locked until the transaction ends.
+	 * 
+	 * @param encounterTypeIds the types to void, not empty
+	 * @param fromDate if not null, only encounters on or after this datetime are voided
+	 * @param toDate if not null, only encounters before this datetime are voided
+	 * @param afterEncounterId exclusive lower bound of the window
+	 * @param toEncounterId inclusive upper bound of the window
+	 * @return the number of voided encounters and obs
+	 */
+	public VoidResult voidEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate,
+	        int afterEncounterId, int toEncounterId, String voidReason);
+	
+	/**
+	 * Creates a provider person with EPID and Role attributes. Runs and commits in its own
+	 * transaction, so other replay workers can use the person before the caller's chunk commits.
+	 * 
+	 * @return the id of the new person
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public Integer createProvider(String epid, String givenName, String familyName);
+	
+	/**
+	 * Returns the id of the encounter type with this name, creating it if missing. Runs and commits
+	 * in its own transaction, so the row survives a rollback of the caller's chunk. A caller whose
+	 * transaction started earlier may not see the row yet, and must use
+	 * {@link #getEncounterTypeReference(Integer)} rather than read it.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public Integer createEncounterType(String name, String description);
+	
+	/**
+	 * Returns the id of the person attribute type with this name, creating it if missing, in its
+	 * own transaction like {@link #createEncounterType(String, String)}.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public Integer createPersonAttributeType(String name, String description);
+	
+	/**
+	 * Returns the person with this id without reading it, for use as a reference such as an
+	 * encounter provider. Works for persons committed after the current transaction started.
+	 */
+	@Transactional(readOnly = true)
+	public Person getPersonReference(Integer personId);
+	
+	/**
+	 * Returns the encounter type with this id without reading it, see
+	 * {@link #getPersonReference(Integer)}.
+	 */
+	@Transactional(readOnly = true)
+	public EncounterType getEncounterTypeReference(Integer encounterTypeId);
+	
+	/**
+	 * Returns the person attribute type with this id without reading it, see
+	 * {@link #getPersonReference(Integer)}.
+	 */
+	@Transactional(readOnly = true)
+	public PersonAttributeType getPersonAttributeTypeReference(Integer personAttributeTypeId);
+	
+	/**
+	 * Returns the location with this id without reading it, see {@link #getPersonReference(Integer)}.
+	 */
+	@Transactional(readOnly = true)
+	public Location getLocationReference(Integer locationId);
+	
+	/**
+	 * Returns the concept with this id without reading it, see {@link #getPersonReference(Integer)}.
+	 */
+	@Transactional(readOnly = true)
+	public Concept getConceptReference(Integer conceptId);
+	
+	/**
+	 * Returns the patient with this id without reading it, see {@link #getPersonReference(Integer)}.
+	 */
+	@Transactional(readOnly = true)
+	public Patient getPatientReference(Integer patientId);
+	
+	/**
+	 * Looks up many patient identifiers of one type with a single query.
+	 * 
+	 * @return the unvoided patient ids by identifier, identifiers that match no patient are left out
+	 */
+	@Transactional(readOnly = true)
+	public Map<String, List<Integer>> getPatientIdsByIdentifier(int identifierTypeId, Collection<String> identifiers);
+	
+	/**
+	 * Looks up many person attribute values of one type with a single query.
+	 * 
+	 * @return the unvoided person ids by value, values that match no person are left out
+	 */
+	@Transactional(readOnly = true)
+	public Map<String, List<Integer>> getPersonIdsByAttribute(int attributeTypeId, Collection<String> values);
+	
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api;
+
+/**
+ * What one {@link RapidSMSValidatorService#voidEncounters} call changed.
+ */
+public class VoidResult {
+	
+	private final int encounters;
+	
+	private final int obs;
+	
+	private final long elapsed;
+	
+	public VoidResult(int encounters, int obs, long elapsed) {
+		this.encounters = encounters;
+		this.obs = obs;
+		this.elapsed = elapsed;
+	}
+	
+	/**
+	 * @return the number of voided encounters
+	 */
+	public int getEncounters() {
+		return encounters;
+	}
+	
+	/**
+	 * @return the number of voided obs
+	 */
+	public int getObs() {
+		return obs;
+	}
+	
+	/**
+	 * @return milliseconds spent in the updates, roughly how long the rows were locked
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+	
+	@Override
+	public String toString() {
+		return encounters + " encounters and " + obs + " obs in " + elapsed + " ms";
+	}
+}
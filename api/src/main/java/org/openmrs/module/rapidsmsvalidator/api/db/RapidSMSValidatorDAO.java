@@ -1,32 +1,165 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.api.db;
-
-import java.util.List;
-
-import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
-import org.openmrs.module.rheashradapter.model.PostEncounterLog;
-
-/**
- *  Database methods for {@link RapidSMSValidatorService}.
- */
-public interface RapidSMSValidatorDAO {
-	
-	/*
-	 * Add DAO methods here
-	 */
-	
-	List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId);
-	
-}
\ No newline at end of file
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.db;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.ProcessedMessage;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rheashradapter.model.PostEncounterLog;
+
+/**
+ *  Database methods for {@link RapidSMSValidatorService}.
+ */
+public interface RapidSMSValidatorDAO {
+	
+	/*
+	 * Add DAO methods here
+	 */
+	
+	List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId);
+	
+	/**
+	 * Fetches the postRequestId and hl7data of the next keyset page of logs, ordered by
+	 * postRequestId, without loading entities.
+	 * 
+	 * @param afterId exclusive lower bound, usually the last id of the previous page
+	 * @param toId inclusive upper bound of the range
+	 * @param maxResults page size
+	 * @param sendingApplication if not null, only logs whose MSH-3 starts with it
+	 */
+	List<ReplayItem> getReplayItemPage(int afterId, int toId, int maxResults, String sendingApplication);
+	
+	/**
+	 * Inserts or updates a job checkpoint, which may be detached.
+	 * 
+	 * @return the persistent checkpoint
+	 */
+	JobCheckpoint saveJobCheckpoint(JobCheckpoint checkpoint);
+	
+	void saveJobMessageStatuses(Collection<JobMessageStatus> statuses);
+	
+	int deleteJobMessageStatuses(int jobId, int afterPostRequestId);
+	
+	List<JobCheckpoint> getJobCheckpoints();
+	
+	List<JobMessageStatus> getJobMessageStatuses(int jobId, String outcome, int firstResult, int maxResults);
+	
+	ProcessedMessage getProcessedMessage(String messageKey);
+	
+	/**
+	 * @see RapidSMSValidatorService#getAppliedEncounterIds(Collection)
+	 */
+	Map<String, Integer> getAppliedEncounterIds(Collection<String> messageKeys);
+	
+	ProcessedMessage saveProcessedMessage(ProcessedMessage processedMessage);
+	
+	/**
+	 * Inserts new obs of saved encounters with one JDBC batch. The obs stay transient and do not get
+	 * their ids.
+	 */
+	void insertObs(List<Obs> obs);
+	
+	Integer getMaxEncounterId();
+	
+	/**
+	 * Finds the unvoided encounters of a type in an encounter id window whose datetime differs from
+	 * the datetime value of their unvoided obs for a concept.
+	 * 
+	 * @return the obs value by encounter id, from the obs with the highest id if there are several
+	 */
+	Map<Integer, Date> getEncounterObsDatetimes(int encounterTypeId, int conceptId, int afterEncounterId,
+	        int toEncounterId);
+	
+	/**
+	 * Sets the datetime of the given encounters with one bulk update.
+	 * 
+	 * @return the number of updated rows
+	 */
+	int updateEncounterDatetime(Collection<Integer> encounterIds, Date encounterDatetime);
+	
+	/**
+	 * Voids the unvoided obs of the encounters {@link #voidEncounters} would void, with one bulk
+	 * update. Must run before it.
+	 * 
+	 * @return the number of voided obs
+	 */
+	int voidObsOfEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate, int afterEncounterId,
+	        int toEncounterId, Date dateVoided, String voidReason);
+	
+	/**
+	 * Voids the unvoided encounters of the given types in an encounter id window, and in a date window
+	 * if one is given, with one bulk update.
+	 * 
+	 * @return the number of voided encounters
+	 */
+	int voidEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate, int afterEncounterId,
+	        int toEncounterId, Date dateVoided, String voidReason);
+	
+	/**
+	 * @return an uninitialized proxy of the person, without reading it
+	 */
+	Person getPersonReference(Integer personId);
+	
+	/**
+	 * @return an uninitialized proxy of the encounter type, without reading it
+	 */
+	EncounterType getEncounterTypeReference(Integer encounterTypeId);
+	
+	/**
+	 * @return an uninitialized proxy of the person attribute type, without reading it
+	 */
+	PersonAttributeType getPersonAttributeTypeReference(Integer personAttributeTypeId);
+	
+	/**
+	 * @return an uninitialized proxy of the location, without reading it
+	 */
+	Location getLocationReference(Integer locationId);
+	
+	/**
+	 * @return an uninitialized proxy of the concept, without reading it
+	 */
+	Concept getConceptReference(Integer conceptId);
+	
+	/**
+	 * @return an uninitialized proxy of the patient, without reading it
+	 */
+	Patient getPatientReference(Integer patientId);
+	
+	/**
+	 * @return the ids of the unvoided patients with each of the given unvoided identifiers of a type,
+	 *         identifiers without a patient are left out
+	 */
+	Map<String, List<Integer>> getPatientIdsByIdentifier(int identifierTypeId, Collection<String> identifiers);
+	
+	/**
+	 * @return the ids of the unvoided persons with each of the given unvoided attribute values of a
+	 *         type, values without a person are left out
+	 */
+	Map<String, List<Integer>> getPersonIdsByAttribute(int attributeTypeId, Collection<String> values);
+	
+}
@@ -1,60 +1,426 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.api.db.hibernate;
-
-import java.util.List;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.hibernate.Criteria;
-import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Expression;
-import org.openmrs.module.rapidsmsvalidator.api.db.RapidSMSValidatorDAO;
-import org.openmrs.module.rheashradapter.model.PostEncounterLog;
-
-
-/**
- * It is a default implementation of  {@link RapidSMSValidatorDAO}.
- */
-public class HibernateRapidSMSValidatorDAO implements RapidSMSValidatorDAO {
-	protected final Log log = LogFactory.getLog(this.getClass());
-	
-	private SessionFactory sessionFactory;
-	
-	/**
-     * @param sessionFactory the sessionFactory to set
-     */
-    public void setSessionFactory(SessionFactory sessionFactory) {
-	    this.sessionFactory = sessionFactory;
-    }
-    
-	/**
-     * @return the sessionFactory
-     */
-    public SessionFactory getSessionFactory() {
-	    return sessionFactory;
-    }
-    
-    @Override
-    public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId) {
-		
-    Criteria crit = sessionFactory.getCurrentSession().createCriteria(org.openmrs.module.rheashradapter.model.PostEncounterLog.class);
-
-		crit.add(Expression.ge("postRequestId", fromId));
-		crit.add(Expression.le("postRequestId", toId));	    
-	
-	return crit.list();
-	}
-    
-}
\ No newline at end of file
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.db.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Expression;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.DAOException;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.ProcessedMessage;
+import org.openmrs.module.rapidsmsvalidator.api.db.RapidSMSValidatorDAO;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rheashradapter.model.PostEncounterLog;
+
+
+/**
+ * It is a default implementation of  {@link RapidSMSValidatorDAO}.
+ */
+public class HibernateRapidSMSValidatorDAO implements RapidSMSValidatorDAO {
+	protected final Log log = LogFactory.getLog(this.getClass());
+	
+	private static final String INSERT_OBS = "insert into obs (person_id, concept_id, encounter_id, obs_datetime,"
+	        + " location_id, value_coded, value_coded_name_id, value_drug, value_datetime, value_numeric, value_text,"
+	        + " comments, creator, date_created, uuid, voided) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+	
+	private SessionFactory sessionFactory;
+	
+	private volatile boolean batchUrlChecked;
+	
+	/**
+     * @param sessionFactory the sessionFactory to set
+     */
+    public void setSessionFactory(SessionFactory sessionFactory) {
+	    this.sessionFactory = sessionFactory;
+    }
+    
+	/**
+     * @return the sessionFactory
+     */
+    public SessionFactory getSessionFactory() {
+	    return sessionFactory;
+    }
+    
+    @Override
+    public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId) {
+		
+    Criteria crit = sessionFactory.getCurrentSession().createCriteria(org.openmrs.module.rheashradapter.model.PostEncounterLog.class);
+
+		crit.add(Expression.ge("postRequestId", fromId));
+		crit.add(Expression.le("postRequestId", toId));	    
+	
+	return crit.list();
+	}
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ReplayItem> getReplayItemPage(int afterId, int toId, int maxResults, String sendingApplication) {
+	    Criteria crit = sessionFactory.getCurrentSession().createCriteria(PostEncounterLog.class);
+	    
+	    crit.setProjection(Projections.projectionList().add(Projections.property("postRequestId")).add(
+	        Projections.property("hl7data")));
+	    crit.add(Expression.gt("postRequestId", afterId));
+	    crit.add(Expression.le("postRequestId", toId));
+	    // "MSH" and the six characters up to MSH-3 are the separators and encoding characters
+	    if (sendingApplication != null)
+		    crit.add(Expression.like("hl7data", "MSH______" + sendingApplication + "%"));
+	    crit.addOrder(Order.asc("postRequestId"));
+	    crit.setMaxResults(maxResults);
+	    
+	    List<Object[]> rows = crit.list();
+	    List<ReplayItem> items = new ArrayList<ReplayItem>(rows.size());
+	    for (Object[] row : rows) {
+		    items.add(new ReplayItem((Integer) row[0], (String) row[1]));
+	    }
+	    return items;
+    }
+    
+    @Override
+    public JobCheckpoint saveJobCheckpoint(JobCheckpoint checkpoint) {
+	    return (JobCheckpoint) sessionFactory.getCurrentSession().merge(checkpoint);
+    }
+    
+    @Override
+    public void saveJobMessageStatuses(Collection<JobMessageStatus> statuses) {
+	    Session session = sessionFactory.getCurrentSession();
+	    for (JobMessageStatus status : statuses) {
+		    session.save(status);
+	    }
+	    // the rows are not read back, keep them out of the (long lived) worker sessions
+	    session.flush();
+	    for (JobMessageStatus status : statuses) {
+		    session.evict(status);
+	    }
+    }
+    
+    @Override
+    public int deleteJobMessageStatuses(int jobId, int afterPostRequestId) {
+	    return sessionFactory.getCurrentSession().createQuery(
+	        "delete from JobMessageStatus where jobId = :jobId and postRequestId > :afterPostRequestId")
+	            .setInteger("jobId", jobId).setInteger("afterPostRequestId", afterPostRequestId).executeUpdate();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<JobCheckpoint> getJobCheckpoints() {
+	    return sessionFactory.getCurrentSession().createCriteria(JobCheckpoint.class).addOrder(Order.desc("jobId")).list();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<JobMessageStatus> getJobMessageStatuses(int jobId, String outcome, int firstResult, int maxResults) {
+	    Criteria crit = sessionFactory.getCurrentSession().createCriteria(JobMessageStatus.class);
+	    crit.add(Expression.eq("jobId", jobId));
+	    if (outcome != null)
+		    crit.add(Expression.eq("outcome", outcome));
+	    crit.addOrder(Order.asc("postRequestId"));
+	    crit.setFirstResult(firstResult);
+	    crit.setMaxResults(maxResults);
+	    return crit.list();
+    }
+    
+    @Override
+    public ProcessedMessage getProcessedMessage(String messageKey) {
+	    Criteria crit = sessionFactory.getCurrentSession().createCriteria(ProcessedMessage.class);
+	    crit.add(Expression.eq("messageKey", messageKey));
+	    return (ProcessedMessage) crit.uniqueResult();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Integer> getAppliedEncounterIds(Collection<String> messageKeys) {
+	    List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+	        "select pm.messageKey, pm.encounterId from ProcessedMessage pm, Encounter e"
+	                + " where pm.messageKey in (:messageKeys) and e.encounterId = pm.encounterId and e.voided = false")
+	            .setParameterList("messageKeys", messageKeys).list();
+	    Map<String, Integer> encounterIds = new HashMap<String, Integer>();
+	    for (Object[] row : rows)
+		    encounterIds.put((String) row[0], (Integer) row[1]);
+	    return encounterIds;
+    }
+    
+    @Override
+    public ProcessedMessage saveProcessedMessage(ProcessedMessage processedMessage) {
+	    sessionFactory.getCurrentSession().saveOrUpdate(processedMessage);
+	    return processedMessage;
+    }
+    
+    @Override
+    @SuppressWarnings("deprecation")
+    public void insertObs(List<Obs> obs) {
+	    if (obs.isEmpty())
+		    return;
+	    // obs ids are identity columns, which Hibernate never batches, so the rows are written
+	    // directly on the connection of the current session after its pending changes
+	    Session session = sessionFactory.getCurrentSession();
+	    session.flush();
+	    Integer defaultCreator = Context.getAuthenticatedUser() != null ? Context.getAuthenticatedUser().getUserId() : null;
+	    PreparedStatement statement = null;
+	    try {
+		    Connection connection = session.connection();
+		    if (!batchUrlChecked)
+			    checkBatchUrl(connection);
+		    statement = connection.prepareStatement(INSERT_OBS);
+		    for (Obs o : obs) {
+			    statement.setInt(1, o.getPerson().getPersonId());
+			    statement.setInt(2, o.getConcept().getConceptId());
+			    statement.setInt(3, o.getEncounter().getEncounterId());
+			    statement.setTimestamp(4, new Timestamp(o.getObsDatetime().getTime()));
+			    setInteger(statement, 5, o.getLocation() != null ? o.getLocation().getLocationId() : null);
+			    setInteger(statement, 6, o.getValueCoded() != null ? o.getValueCoded().getConceptId() : null);
+			    setInteger(statement, 7, o.getValueCodedName() != null ? o.getValueCodedName().getConceptNameId() : null);
+			    setInteger(statement, 8, o.getValueDrug() != null ? o.getValueDrug().getDrugId() : null);
+			    if (o.getValueDatetime() != null)
+				    statement.setTimestamp(9, new Timestamp(o.getValueDatetime().getTime()));
+			    else
+				    statement.setNull(9, Types.TIMESTAMP);
+			    if (o.getValueNumeric() != null)
+				    statement.setDouble(10, o.getValueNumeric());
+			    else
+				    statement.setNull(10, Types.DOUBLE);
+			    statement.setString(11, o.getValueText());
+			    statement.setString(12, o.getComment());
+			    setInteger(statement, 13, o.getCreator() != null ? o.getCreator().getUserId() : defaultCreator);
+			    statement.setTimestamp(14, new Timestamp(o.getDateCreated().getTime()));
+			    statement.setString(15, o.getUuid());
+			    statement.addBatch();
+		    }
+		    statement.executeBatch();
+	    }
+	    catch (SQLException e) {
+		    throw new DAOException("Unable to insert the obs of encounter " + obs.get(0).getEncounter().getEncounterId(), e);
+	    }
+	    finally {
+		    if (statement != null) {
+			    try {
+				    statement.close();
+			    }
+			    catch (SQLException e) {
+				    log.warn("Unable to close obs insert statement", e);
+			    }
+		    }
+	    }
+	    // the encounters were saved without these obs, drop them and any cached copy of their obs sets
+	    // so that they are read again with their obs
+	    for (Obs o : obs) {
+		    Encounter encounter = o.getEncounter();
+		    if (session.contains(encounter))
+			    session.evict(encounter);
+		    sessionFactory.evictCollection(Encounter.class.getName() + ".obs", encounter.getEncounterId());
+	    }
+    }
+    
+    /**
+     * Warns once if MySQL Connector/J would send the obs batch one statement at a time.
+     */
+    private void checkBatchUrl(Connection connection) {
+	    batchUrlChecked = true;
+	    try {
+		    String url = connection.getMetaData().getURL();
+		    if (url != null && url.startsWith("jdbc:mysql:") && !url.contains("rewriteBatchedStatements=true"))
+			    log.warn("Add rewriteBatchedStatements=true to the connection.url runtime property, otherwise"
+			            + " MySQL inserts the obs of a notification one statement at a time");
+	    }
+	    catch (SQLException e) {
+		    log.debug("Unable to read the JDBC url", e);
+	    }
+    }
+    
+    @Override
+    public Integer getMaxEncounterId() {
+	    return (Integer) sessionFactory.getCurrentSession().createQuery("select max(encounterId) from Encounter")
+	            .uniqueResult();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Date> getEncounterObsDatetimes(int encounterTypeId, int conceptId, int afterEncounterId,
+                                                       int toEncounterId) {
+	    List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+	        "select e.encounterId, o.valueDatetime from Obs o join o.encounter e"
+	                + " where e.encounterType.encounterTypeId = :encounterTypeId and o.concept.conceptId = :conceptId"
+	                + " and e.encounterId > :afterEncounterId and e.encounterId <= :toEncounterId"
+	                + " and e.voided = false and o.voided = false and o.valueDatetime is not null"
+	                + " and o.valueDatetime <> e.encounterDatetime order by e.encounterId, o.obsId")
+	            .setInteger("encounterTypeId", encounterTypeId).setInteger("conceptId", conceptId)
+	            .setInteger("afterEncounterId", afterEncounterId).setInteger("toEncounterId", toEncounterId).list();
+	    
+	    Map<Integer, Date> datetimes = new LinkedHashMap<Integer, Date>();
+	    for (Object[] row : rows) {
+		    datetimes.put((Integer) row[0], (Date) row[1]);
+	    }
+	    return datetimes;
+    }
+    
+    @Override
+    public int updateEncounterDatetime(Collection<Integer> encounterIds, Date encounterDatetime) {
+	    return sessionFactory.getCurrentSession().createQuery(
+	        "update Encounter set encounterDatetime = :encounterDatetime, changedBy = :changedBy,"
+	                + " dateChanged = :dateChanged where encounterId in (:encounterIds)")
+	            .setTimestamp("encounterDatetime", encounterDatetime)
+	            .setParameter("changedBy", Context.getAuthenticatedUser())
+	            .setTimestamp("dateChanged", new Date())
+	            .setParameterList("encounterIds", encounterIds).executeUpdate();
+    }
+    
+    @Override
+    public int voidObsOfEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate,
+                                   int afterEncounterId, int toEncounterId, Date dateVoided, String voidReason) {
+	    Query query = sessionFactory.getCurrentSession().createQuery(
+	        "update Obs set voided = true, voidedBy = :voidedBy, dateVoided = :dateVoided, voidReason = :voidReason"
+	                + " where voided = false and encounter.encounterId in (select e.encounterId from Encounter e where "
+	                + getVoidedEncountersClause(fromDate, toDate) + ")");
+	    return setVoidParameters(query, encounterTypeIds, fromDate, toDate, afterEncounterId, toEncounterId, dateVoided,
+	        voidReason).executeUpdate();
+    }
+    
+    @Override
+    public int voidEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate, int afterEncounterId,
+                              int toEncounterId, Date dateVoided, String voidReason) {
+	    Query query = sessionFactory.getCurrentSession().createQuery(
+	        "update Encounter e set e.voided = true, e.voidedBy = :voidedBy, e.dateVoided = :dateVoided,"
+	                + " e.voidReason = :voidReason where " + getVoidedEncountersClause(fromDate, toDate));
+	    return setVoidParameters(query, encounterTypeIds, fromDate, toDate, afterEncounterId, toEncounterId, dateVoided,
+	        voidReason).executeUpdate();
+    }
+    
+    @Override
+    public Person getPersonReference(Integer personId) {
+	    return (Person) sessionFactory.getCurrentSession().load(Person.class, personId);
+    }
+    
+    @Override
+    public EncounterType getEncounterTypeReference(Integer encounterTypeId) {
+	    return (EncounterType) sessionFactory.getCurrentSession().load(EncounterType.class, encounterTypeId);
+    }
+    
+    @Override
+    public PersonAttributeType getPersonAttributeTypeReference(Integer personAttributeTypeId) {
+	    return (PersonAttributeType) sessionFactory.getCurrentSession().load(PersonAttributeType.class,
+	        personAttributeTypeId);
+    }
+    
+    @Override
+    public Location getLocationReference(Integer locationId) {
+	    return (Location) sessionFactory.getCurrentSession().load(Location.class, locationId);
+    }
+    
+    @Override
+    public Concept getConceptReference(Integer conceptId) {
+	    return (Concept) sessionFactory.getCurrentSession().load(Concept.class, conceptId);
+    }
+    
+    @Override
+    public Patient getPatientReference(Integer patientId) {
+	    return (Patient) sessionFactory.getCurrentSession().load(Patient.class, patientId);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, List<Integer>> getPatientIdsByIdentifier(int identifierTypeId, Collection<String> identifiers) {
+	    List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+	        "select pi.identifier, p.patientId from PatientIdentifier pi join pi.patient p"
+	                + " where pi.identifierType.patientIdentifierTypeId = :identifierTypeId"
+	                + " and pi.identifier in (:identifiers) and pi.voided = false and p.voided = false")
+	            .setInteger("identifierTypeId", identifierTypeId).setParameterList("identifiers", identifiers).list();
+	    return groupIds(rows);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, List<Integer>> getPersonIdsByAttribute(int attributeTypeId, Collection<String> values) {
+	    List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+	        "select pa.value, p.personId from PersonAttribute pa join pa.person p"
+	                + " where pa.attributeType.personAttributeTypeId = :attributeTypeId"
+	                + " and pa.value in (:values) and pa.voided = false and p.personVoided = false")
+	            .setInteger("attributeTypeId", attributeTypeId).setParameterList("values", values).list();
+	    return groupIds(rows);
+    }
+    
+    private void setInteger(PreparedStatement statement, int index, Integer value) throws SQLException {
+	    if (value != null)
+		    statement.setInt(index, value);
+	    else
+		    statement.setNull(index, Types.INTEGER);
+    }
+    
+    private Map<String, List<Integer>> groupIds(List<Object[]> rows) {
+	    Map<String, List<Integer>> ids = new HashMap<String, List<Integer>>();
+	    for (Object[] row : rows) {
+		    List<Integer> keyIds = ids.get(row[0]);
+		    if (keyIds == null) {
+			    keyIds = new ArrayList<Integer>(1);
+			    ids.put((String) row[0], keyIds);
+		    }
+		    if (!keyIds.contains(row[1]))
+			    keyIds.add((Integer) row[1]);
+	    }
+	    return ids;
+    }
+    
+    private String getVoidedEncountersClause(Date fromDate, Date toDate) {
+	    String clause = "e.voided = false and e.encounterType.encounterTypeId in (:encounterTypeIds)"
+	            + " and e.encounterId > :afterEncounterId and e.encounterId <= :toEncounterId";
+	    if (fromDate != null)
+		    clause += " and e.encounterDatetime >= :fromDate";
+	    if (toDate != null)
+		    clause += " and e.encounterDatetime < :toDate";
+	    return clause;
+    }
+    
+    private Query setVoidParameters(Query query, Collection<Integer> encounterTypeIds, Date fromDate, Date toDate,
+                                    int afterEncounterId, int toEncounterId, Date dateVoided, String voidReason) {
+	    query.setParameterList("encounterTypeIds", encounterTypeIds);
+	    query.setInteger("afterEncounterId", afterEncounterId);
+	    query.setInteger("toEncounterId", toEncounterId);
+	    if (fromDate != null)
+		    query.setTimestamp("fromDate", fromDate);
+	    if (toDate != null)
+		    query.setTimestamp("toDate", toDate);
+	    query.setParameter("voidedBy", Context.getAuthenticatedUser());
+	    query.setTimestamp("dateVoided", dateVoided);
+	    query.setString("voidReason", voidReason);
+	    return query;
+    }
+    
+}
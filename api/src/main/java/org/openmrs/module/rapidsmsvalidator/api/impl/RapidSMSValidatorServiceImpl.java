@@ -1,53 +1,276 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.api.impl;
-
-import java.util.List;
-
-import org.openmrs.api.impl.BaseOpenmrsService;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
-import org.openmrs.module.rapidsmsvalidator.api.db.RapidSMSValidatorDAO;
-import org.openmrs.module.rheashradapter.model.PostEncounterLog;
-
-/**
- * It is a default implementation of {@link RapidSMSValidatorService}.
- */
-public class RapidSMSValidatorServiceImpl extends BaseOpenmrsService implements RapidSMSValidatorService {
-	
-	protected final Log log = LogFactory.getLog(this.getClass());
-	
-	private RapidSMSValidatorDAO dao;
-	
-	/**
-     * @param dao the dao to set
-     */
-    public void setDao(RapidSMSValidatorDAO dao) {
-	    this.dao = dao;
-    }
-    
-    /**
-     * @return the dao
-     */
-    public RapidSMSValidatorDAO getDao() {
-	    return dao;
-    }
-    
-	@Override
-    public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId) {
-	    return dao.getPostEncounterLogs(fromId, toId);
-    }
-	
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Obs;
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.ProcessedMessage;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.VoidResult;
+import org.openmrs.module.rapidsmsvalidator.api.db.RapidSMSValidatorDAO;
+import org.openmrs.module.rapidsmsvalidator.api.replay.MessageReplayer;
+import org.openmrs.module.rapidsmsvalidator.api.replay.MessageValidator;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ParsedItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayFailedException;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ValidationResult;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsMetadata;
+import org.openmrs.module.rheashradapter.model.PostEncounterLog;
+
+/**
+ * It is a default implementation of {@link RapidSMSValidatorService}.
+ */
+public class RapidSMSValidatorServiceImpl extends BaseOpenmrsService implements RapidSMSValidatorService {
+	
+	protected final Log log = LogFactory.getLog(this.getClass());
+	
+	private RapidSMSValidatorDAO dao;
+	
+	/**
+     * @param dao the dao to set
+     */
+    public void setDao(RapidSMSValidatorDAO dao) {
+	    this.dao = dao;
+    }
+    
+    /**
+     * @return the dao
+     */
+    public RapidSMSValidatorDAO getDao() {
+	    return dao;
+    }
+    
+	@Override
+    public List<PostEncounterLog> getPostEncounterLogs(int fromId, int toId) {
+	    return dao.getPostEncounterLogs(fromId, toId);
+    }
+	
+	@Override
+	public List<ReplayItem> getReplayItemPage(int afterId, int toId, int maxResults, String sendingApplication) {
+		return dao.getReplayItemPage(afterId, toId, maxResults, sendingApplication);
+	}
+	
+	@Override
+	public JobCheckpoint saveJobCheckpoint(JobCheckpoint checkpoint, Collection<JobMessageStatus> statuses) {
+		if (!statuses.isEmpty())
+			dao.saveJobMessageStatuses(statuses);
+		return dao.saveJobCheckpoint(checkpoint);
+	}
+	
+	@Override
+	public int deleteJobMessageStatuses(int jobId, int afterPostRequestId) {
+		return dao.deleteJobMessageStatuses(jobId, afterPostRequestId);
+	}
+	
+	@Override
+	public List<JobCheckpoint> getJobCheckpoints() {
+		return dao.getJobCheckpoints();
+	}
+	
+	@Override
+	public List<JobMessageStatus> getJobMessageStatuses(int jobId, String outcome, int firstResult, int maxResults) {
+		return dao.getJobMessageStatuses(jobId, outcome, firstResult, maxResults);
+	}
+	
+	@Override
+	public ProcessedMessage getProcessedMessage(String messageKey) {
+		return dao.getProcessedMessage(messageKey);
+	}
+	
+	@Override
+	public Map<String, Integer> getAppliedEncounterIds(Collection<String> messageKeys) {
+		if (messageKeys.isEmpty())
+			return new HashMap<String, Integer>();
+		return dao.getAppliedEncounterIds(messageKeys);
+	}
+	
+	@Override
+	public ProcessedMessage saveProcessedMessage(String messageKey, Integer encounterId) {
+		ProcessedMessage processedMessage = dao.getProcessedMessage(messageKey);
+		if (processedMessage == null)
+			processedMessage = new ProcessedMessage(messageKey, encounterId);
+		else
+			processedMessage.setEncounterId(encounterId);
+		return dao.saveProcessedMessage(processedMessage);
+	}
+	
+	@Override
+	public void saveObs(List<Obs> obs) {
+		dao.insertObs(obs);
+	}
+	
+	@Override
+	public List<ReplayOutcome> replay(List<ParsedItem> items, MessageReplayer replayer) throws APIException {
+		List<ReplayOutcome> outcomes = replayer.process(items);
+		// only the handler may have written something, logs that failed to parse are passed through
+		List<ParsedItem> failed = new ArrayList<ParsedItem>();
+		for (int i = 0; i < items.size(); i++) {
+			if (outcomes.get(i) == ReplayOutcome.FAILED && items.get(i).getMessage() != null)
+				failed.add(items.get(i));
+		}
+		if (!failed.isEmpty())
+			throw new ReplayFailedException(failed);
+		return outcomes;
+	}
+	
+	@Override
+	public List<ValidationResult> validate(List<ParsedItem> items, MessageValidator validator) {
+		return validator.validate(items);
+	}
+	
+	@Override
+	public Integer getMaxEncounterId() {
+		return dao.getMaxEncounterId();
+	}
+	
+	@Override
+	public int updateEncounterDatetimesFromObs(int encounterTypeId, int conceptId, int afterEncounterId,
+	        int toEncounterId) {
+		Map<Integer, Date> datetimes = dao.getEncounterObsDatetimes(encounterTypeId, conceptId, afterEncounterId,
+		    toEncounterId);
+		
+		// obs values are mostly dates, so many encounters share one
+		Map<Date, List<Integer>> encountersByDatetime = new HashMap<Date, List<Integer>>();
+		for (Map.Entry<Integer, Date> entry : datetimes.entrySet()) {
+			Date datetime = new Date(entry.getValue().getTime());
+			List<Integer> encounterIds = encountersByDatetime.get(datetime);
+			if (encounterIds == null) {
+				encounterIds = new ArrayList<Integer>();
+				encountersByDatetime.put(datetime, encounterIds);
+			}
+			encounterIds.add(entry.getKey());
+		}
+		
+		int updated = 0;
+		for (Map.Entry<Date, List<Integer>> entry : encountersByDatetime.entrySet())
+			updated += dao.updateEncounterDatetime(entry.getValue(), entry.getKey());
+		return updated;
+	}
+	
+	@Override
+	public VoidResult voidEncounters(Collection<Integer> encounterTypeIds, Date fromDate, Date toDate,
+	        int afterEncounterId, int toEncounterId, String voidReason) {
+		if (encounterTypeIds.isEmpty())
+			throw new IllegalArgumentException("No encounter types to void");
+		
+		long start = System.currentTimeMillis();
+		Date dateVoided = new Date();
+		// the obs first, their subquery only matches encounters that are not voided yet
+		int obs = dao.voidObsOfEncounters(encounterTypeIds, fromDate, toDate, afterEncounterId, toEncounterId,
+		    dateVoided, voidReason);
+		int encounters = dao.voidEncounters(encounterTypeIds, fromDate, toDate, afterEncounterId, toEncounterId,
+		    dateVoided, voidReason);
+		return new VoidResult(encounters, obs, System.currentTimeMillis() - start);
+	}
+	
+	@Override
+	public Integer createProvider(String epid, String givenName, String familyName) {
+		Person provider = new Person();
+		provider.addName(new PersonName(givenName, "", familyName));
+		provider.addAttribute(new PersonAttribute(RsmsMetadata.getInstance().getEpidAttributeType(), epid));
+		provider.addAttribute(new PersonAttribute(RsmsMetadata.getInstance().getRoleAttributeType(), "Provider"));
+		provider.setGender("N/A");
+		return Context.getPersonService().savePerson(provider).getPersonId();
+	}
+	
+	@Override
+	public Integer createEncounterType(String name, String description) {
+		EncounterType encounterType = Context.getEncounterService().getEncounterType(name);
+		if (encounterType == null) {
+			log.info("Creating the encounter type " + name + " since it does not exist");
+			encounterType = Context.getEncounterService().saveEncounterType(new EncounterType(name, description));
+		}
+		return encounterType.getEncounterTypeId();
+	}
+	
+	@Override
+	public Integer createPersonAttributeType(String name, String description) {
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeTypeByName(name);
+		if (attributeType == null) {
+			log.info("Creating a PersonAttributeType for " + name + " since it does not exist");
+			attributeType = new PersonAttributeType();
+			attributeType.setName(name);
+			attributeType.setDescription(description);
+			attributeType = Context.getPersonService().savePersonAttributeType(attributeType);
+		}
+		return attributeType.getPersonAttributeTypeId();
+	}
+	
+	@Override
+	public Person getPersonReference(Integer personId) {
+		return dao.getPersonReference(personId);
+	}
+	
+	@Override
+	public EncounterType getEncounterTypeReference(Integer encounterTypeId) {
+		return dao.getEncounterTypeReference(encounterTypeId);
+	}
+	
+	@Override
+	public PersonAttributeType getPersonAttributeTypeReference(Integer personAttributeTypeId) {
+		return dao.getPersonAttributeTypeReference(personAttributeTypeId);
+	}
+	
+	@Override
+	public Location getLocationReference(Integer locationId) {
+		return dao.getLocationReference(locationId);
+	}
+	
+	@Override
+	public Concept getConceptReference(Integer conceptId) {
+		return dao.getConceptReference(conceptId);
+	}
+	
+	@Override
+	public Patient getPatientReference(Integer patientId) {
+		return dao.getPatientReference(patientId);
+	}
+	
+	@Override
+	public Map<String, List<Integer>> getPatientIdsByIdentifier(int identifierTypeId, Collection<String> identifiers) {
+		if (identifiers.isEmpty())
+			return new HashMap<String, List<Integer>>();
+		return dao.getPatientIdsByIdentifier(identifierTypeId, identifiers);
+	}
+	
+	@Override
+	public Map<String, List<Integer>> getPersonIdsByAttribute(int attributeTypeId, Collection<String> values) {
+		if (values.isEmpty())
+			return new HashMap<String, List<Integer>>();
+		return dao.getPersonIdsByAttribute(attributeTypeId, values);
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+/**
+ * Sets the datetime of every birth encounter to the value of its date of birth obs.
+ */
+public class EditBirthEncountersTask extends EncounterWindowTask {
+	
+	public static final int BIRTH_ENCOUNTER_TYPE_ID = 10;
+	
+	public static final int DATE_OF_BIRTH_CONCEPT_ID = 160259;
+	
+	@Override
+	protected int process(int afterId, int toId) {
+		return getService().updateEncounterDatetimesFromObs(BIRTH_ENCOUNTER_TYPE_ID, DATE_OF_BIRTH_CONCEPT_ID,
+		    afterId, toId);
+	}
+}
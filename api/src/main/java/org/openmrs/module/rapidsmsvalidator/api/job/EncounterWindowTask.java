@@ -0,0 +1,60 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * Base class for jobs that fix up encounters with set-based updates. The job range is an encounter
+ * id range, which is worked through in windows of {@value #WINDOW_SIZE} ids, each in its own
+ * transaction. The checkpoint is the last encounter id of the last finished window.
+ */
+public abstract class EncounterWindowTask implements JobTask {
+	
+	public static final int WINDOW_SIZE = 1000;
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	public void run(Job job) throws Exception {
+		Integer maxEncounterId = getService().getMaxEncounterId();
+		if (maxEncounterId == null)
+			return;
+		
+		int toId = Math.min(job.getToId(), maxEncounterId);
+		int afterId = Math.max(job.getCheckpoint(), job.getFromId() - 1);
+		while (afterId < toId && !job.isCancelRequested()) {
+			int windowEnd = (int) Math.min((long) afterId + WINDOW_SIZE, toId);
+			int updated = process(afterId, windowEnd);
+			if (updated > 0)
+				log.debug("Updated " + updated + " encounters in " + (afterId + 1) + " to " + windowEnd);
+			job.processed(updated);
+			JobManager.getInstance().checkpoint(job, windowEnd);
+			afterId = windowEnd;
+		}
+	}
+	
+	/**
+	 * Updates the encounters with afterId &lt; encounterId &lt;= toId.
+	 * 
+	 * @return the number of updated encounters
+	 */
+	protected abstract int process(int afterId, int toId);
+	
+	protected static RapidSMSValidatorService getService() {
+		return Context.getService(RapidSMSValidatorService.class);
+	}
+}
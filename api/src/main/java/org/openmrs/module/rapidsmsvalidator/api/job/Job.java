@@ -0,0 +1,229 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.rapidsmsvalidator.api.replay.StageStats;
+
+/**
+ * A background job working through an id range, e.g. the postRequestIds of a replay. Progress is
+ * tracked as the last id whose work is committed, which is where a cancelled or interrupted job
+ * resumes.
+ */
+public class Job {
+	
+	private final int id;
+	
+	private final JobType type;
+	
+	private final int fromId;
+	
+	private final int toId;
+	
+	private final int workers;
+	
+	private volatile JobStatus status = JobStatus.QUEUED;
+	
+	private volatile int checkpoint;
+	
+	private final AtomicLong processed = new AtomicLong();
+	
+	private final AtomicLong failed = new AtomicLong();
+	
+	private volatile long processedAtStart;
+	
+	private volatile int checkpointAtStart;
+	
+	private volatile Date started;
+	
+	private volatile Date finished;
+	
+	private volatile String error;
+	
+	private volatile boolean cancelRequested;
+	
+	private volatile List<StageStats> stages = Collections.emptyList();
+	
+	public Job(int id, JobType type, int fromId, int toId, int workers) {
+		this.id = id;
+		this.type = type;
+		this.fromId = fromId;
+		this.toId = toId;
+		this.workers = workers;
+		this.checkpoint = fromId - 1;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	public JobType getType() {
+		return type;
+	}
+	
+	public int getFromId() {
+		return fromId;
+	}
+	
+	public int getToId() {
+		return toId;
+	}
+	
+	public int getWorkers() {
+		return workers;
+	}
+	
+	public JobStatus getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return the last id whose work is committed
+	 */
+	public int getCheckpoint() {
+		return checkpoint;
+	}
+	
+	public long getProcessed() {
+		return processed.get();
+	}
+	
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	public Date getStarted() {
+		return started;
+	}
+	
+	public Date getFinished() {
+		return finished;
+	}
+	
+	public String getError() {
+		return error;
+	}
+	
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+	
+	/**
+	 * @return the pipeline stages of the current run, empty for jobs that do not run a pipeline
+	 */
+	public List<StageStats> getStages() {
+		return stages;
+	}
+	
+	/**
+	 * Counts one processed item.
+	 * 
+	 * @param success false if the item failed
+	 */
+	public void processed(boolean success) {
+		processed.incrementAndGet();
+		if (!success)
+			failed.incrementAndGet();
+	}
+	
+	/**
+	 * Counts several successfully processed items.
+	 */
+	public void processed(int count) {
+		processed.addAndGet(count);
+	}
+	
+	/**
+	 * @return items processed per second since the job was last started
+	 */
+	public double getThroughput() {
+		long elapsed = getElapsed();
+		return elapsed <= 0 ? 0 : (processed.get() - processedAtStart) * 1000.0 / elapsed;
+	}
+	
+	/**
+	 * @return the committed share of the id range, between 0 and 1
+	 */
+	public double getProgress() {
+		long range = (long) toId - fromId + 1;
+		if (range <= 0 || status == JobStatus.COMPLETED)
+			return 1;
+		return Math.max(0, Math.min(1, ((long) checkpoint - fromId + 1) / (double) range));
+	}
+	
+	/**
+	 * @return estimated milliseconds until the job completes, or -1 if unknown
+	 */
+	public long getEta() {
+		long elapsed = getElapsed();
+		long done = (long) checkpoint - checkpointAtStart;
+		if (status != JobStatus.RUNNING || elapsed <= 0 || done <= 0)
+			return -1;
+		return (long) (((long) toId - checkpoint) * (elapsed / (double) done));
+	}
+	
+	void setCheckpoint(int checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	void setStages(List<StageStats> stages) {
+		this.stages = stages;
+	}
+	
+	void requestCancel() {
+		cancelRequested = true;
+	}
+	
+	void queued() {
+		status = JobStatus.QUEUED;
+		cancelRequested = false;
+		error = null;
+		finished = null;
+	}
+	
+	void started() {
+		started = new Date();
+		processedAtStart = processed.get();
+		checkpointAtStart = checkpoint;
+		status = JobStatus.RUNNING;
+	}
+	
+	void finished(JobStatus status, String error) {
+		this.error = error;
+		this.finished = new Date();
+		this.status = status;
+	}
+	
+	/**
+	 * Restores the state of a job that was persisted before a restart.
+	 */
+	void restore(JobStatus status, int checkpoint, long processed, long failed) {
+		this.status = status;
+		this.checkpoint = checkpoint;
+		this.processed.set(processed);
+		this.failed.set(failed);
+	}
+	
+	private long getElapsed() {
+		Date start = started;
+		if (start == null)
+			return 0;
+		Date end = finished;
+		return (end != null ? end.getTime() : System.currentTimeMillis()) - start.getTime();
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * Runs {@link Job}s in the background and keeps track of them.
+ * <p>
+ * Jobs are persisted as {@link JobCheckpoint}s whenever their status changes. While a job runs, the
+ * outcome of each message is buffered and written as {@link JobMessageStatus} rows together with
+ * the checkpoint in one transaction, once {@value #STATUS_BATCH_SIZE} statuses are buffered or
+ * {@value #PERSIST_INTERVAL} ms have passed. After a restart jobs that were running come back as
+ * {@link JobStatus#INTERRUPTED} and can be resumed from their last persisted checkpoint.
+ * <p>
+ * The checkpoint is not written in the transactions of the work it covers, so jobs run at least
+ * once: work committed after the last persisted checkpoint is done again when the job is resumed
+ * after a crash, a restart or a cancel. Every task is idempotent for this: a replay skips the
+ * messages the {@link org.openmrs.module.rapidsmsvalidator.ProcessedMessage} index already knows
+ * as {@link org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome#DUPLICATE}, a validation
+ * writes nothing, and the encounter fix-ups only update encounters that still need it. Before a job
+ * runs, the statuses it recorded after its checkpoint are deleted so that each message keeps one
+ * status; the processed and failed counts may count such messages twice.
+ */
+public class JobManager {
+	
+	public static final int MAX_CONCURRENT_JOBS = 2;
+	
+	public static final long PERSIST_INTERVAL = 5000;
+	
+	public static final int STATUS_BATCH_SIZE = 500;
+	
+	private static final JobManager INSTANCE = new JobManager();
+	
+	private static final Log log = LogFactory.getLog(JobManager.class);
+	
+	private final Map<Integer, Job> jobs = new ConcurrentHashMap<Integer, Job>();
+	
+	private final Map<Integer, JobCheckpoint> checkpoints = new ConcurrentHashMap<Integer, JobCheckpoint>();
+	
+	private final Map<Integer, List<JobMessageStatus>> statuses = new ConcurrentHashMap<Integer, List<JobMessageStatus>>();
+	
+	private final Map<Integer, Long> lastPersisted = new ConcurrentHashMap<Integer, Long>();
+	
+	private volatile ExecutorService executor;
+	
+	public static JobManager getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Starts the job threads and loads the persisted jobs. Called when the module starts.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+		executor = Executors.newFixedThreadPool(MAX_CONCURRENT_JOBS, new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rapidsmsvalidator-job-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		for (JobCheckpoint checkpoint : getService().getJobCheckpoints()) {
+			try {
+				Job job = restore(checkpoint);
+				jobs.put(job.getId(), job);
+				checkpoints.put(job.getId(), checkpoint);
+			}
+			catch (IllegalArgumentException e) {
+				log.warn("Ignoring unreadable job " + checkpoint.getJobId(), e);
+			}
+		}
+		log.info("Loaded " + jobs.size() + " RapidSMS validator jobs");
+	}
+	
+	/**
+	 * Cancels the running jobs and stops the job threads. Called when the module stops.
+	 */
+	public synchronized void stop() {
+		if (executor == null)
+			return;
+		for (Job job : jobs.values())
+			if (job.getStatus().isActive())
+				job.requestCancel();
+		executor.shutdownNow();
+		executor = null;
+	}
+	
+	/**
+	 * Queues a new job.
+	 * 
+	 * @param fromId first id of the range, inclusive
+	 * @param toId last id of the range, inclusive
+	 * @param workers number of worker threads, only used by replay jobs
+	 */
+	public Job submit(JobType type, int fromId, int toId, int workers) {
+		JobCheckpoint checkpoint = new JobCheckpoint();
+		checkpoint.setJobType(type.name());
+		checkpoint.setFromId(fromId);
+		checkpoint.setToId(toId);
+		checkpoint.setWorkers(workers);
+		checkpoint.setStatus(JobStatus.QUEUED.name());
+		checkpoint.setCheckpoint(fromId - 1);
+		checkpoint.setProcessed(0L);
+		checkpoint.setFailed(0L);
+		checkpoint.setDateCreated(new Date());
+		checkpoint = getService().saveJobCheckpoint(checkpoint, Collections.<JobMessageStatus> emptyList());
+		
+		Job job = new Job(checkpoint.getJobId(), type, fromId, toId, workers);
+		checkpoints.put(job.getId(), checkpoint);
+		jobs.put(job.getId(), job);
+		enqueue(job);
+		return job;
+	}
+	
+	/**
+	 * Queues a cancelled, failed or interrupted job again, it continues after its checkpoint. The
+	 * status is checked and changed under the lock of {@link #enqueue(Job)}, so concurrent calls
+	 * queue the job once.
+	 * 
+	 * @return the job, or null if there is no such job or it can not be resumed
+	 */
+	public synchronized Job resume(int id) {
+		Job job = jobs.get(id);
+		if (job == null || !job.getStatus().isResumable())
+			return null;
+		enqueue(job);
+		return job;
+	}
+	
+	/**
+	 * Asks a queued or running job to stop at its next checkpoint.
+	 * 
+	 * @return false if there is no such active job
+	 */
+	public boolean cancel(int id) {
+		Job job = jobs.get(id);
+		if (job == null || !job.getStatus().isActive())
+			return false;
+		job.requestCancel();
+		return true;
+	}
+	
+	public Job getJob(int id) {
+		return jobs.get(id);
+	}
+	
+	/**
+	 * @return all known jobs, newest first
+	 */
+	public List<Job> getJobs() {
+		List<Job> result = new ArrayList<Job>(jobs.values());
+		Collections.sort(result, new Comparator<Job>() {
+			
+			public int compare(Job a, Job b) {
+				return b.getId() - a.getId();
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Buffers the outcome of one message, it is written with the next checkpoint.
+	 */
+	public void record(Job job, int postRequestId, String outcome) {
+		record(job, postRequestId, outcome, null);
+	}
+	
+	/**
+	 * Buffers the outcome of one message with a description of its problems, which is cut to fit
+	 * the column.
+	 */
+	public void record(Job job, int postRequestId, String outcome, String detail) {
+		if (detail != null && detail.length() > 1024)
+			detail = detail.substring(0, 1021) + "...";
+		getStatusBuffer(job).add(new JobMessageStatus(job.getId(), postRequestId, outcome, detail));
+	}
+	
+	/**
+	 * Records that the work of a job is committed up to and including lastId. Can be called from any
+	 * thread that has an open Context session. The checkpoint is persisted later, see the class
+	 * comment for what is done again after a crash.
+	 */
+	public void checkpoint(Job job, int lastId) {
+		job.setCheckpoint(lastId);
+		Long last = lastPersisted.get(job.getId());
+		if (last == null || System.currentTimeMillis() - last > PERSIST_INTERVAL
+		        || getStatusBuffer(job).size() >= STATUS_BATCH_SIZE)
+			persist(job);
+	}
+	
+	private synchronized void enqueue(Job job) {
+		if (executor == null)
+			throw new IllegalStateException("The RapidSMS validator job manager is not started");
+		job.queued();
+		persist(job);
+		executor.execute(new JobRunner(job, Context.getUserContext()));
+	}
+	
+	private List<JobMessageStatus> getStatusBuffer(Job job) {
+		List<JobMessageStatus> buffer = statuses.get(job.getId());
+		if (buffer == null) {
+			synchronized (statuses) {
+				buffer = statuses.get(job.getId());
+				if (buffer == null) {
+					buffer = Collections.synchronizedList(new ArrayList<JobMessageStatus>());
+					statuses.put(job.getId(), buffer);
+				}
+			}
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Writes the job state and the buffered message statuses in one transaction.
+	 */
+	private void persist(Job job) {
+		synchronized (job) {
+			List<JobMessageStatus> buffer = getStatusBuffer(job);
+			List<JobMessageStatus> pending;
+			synchronized (buffer) {
+				pending = new ArrayList<JobMessageStatus>(buffer);
+				buffer.clear();
+			}
+			
+			JobCheckpoint previous = checkpoints.get(job.getId());
+			JobCheckpoint checkpoint = new JobCheckpoint();
+			checkpoint.setJobId(job.getId());
+			checkpoint.setUuid(previous.getUuid());
+			checkpoint.setDateCreated(previous.getDateCreated());
+			checkpoint.setJobType(job.getType().name());
+			checkpoint.setFromId(job.getFromId());
+			checkpoint.setToId(job.getToId());
+			checkpoint.setWorkers(job.getWorkers());
+			checkpoint.setStatus(job.getStatus().name());
+			checkpoint.setCheckpoint(job.getCheckpoint());
+			checkpoint.setProcessed(job.getProcessed());
+			checkpoint.setFailed(job.getFailed());
+			String error = job.getError();
+			checkpoint.setError(error != null && error.length() > 1024 ? error.substring(0, 1024) : error);
+			checkpoint.setDateChanged(new Date());
+			
+			checkpoints.put(job.getId(), getService().saveJobCheckpoint(checkpoint, pending));
+			lastPersisted.put(job.getId(), System.currentTimeMillis());
+		}
+	}
+	
+	private static Job restore(JobCheckpoint checkpoint) {
+		Job job = new Job(checkpoint.getJobId(), JobType.valueOf(checkpoint.getJobType()), checkpoint.getFromId(),
+		        checkpoint.getToId(), checkpoint.getWorkers());
+		JobStatus status = JobStatus.valueOf(checkpoint.getStatus());
+		if (status.isActive())
+			status = JobStatus.INTERRUPTED;
+		job.restore(status, checkpoint.getCheckpoint(), checkpoint.getProcessed(), checkpoint.getFailed());
+		return job;
+	}
+	
+	private static RapidSMSValidatorService getService() {
+		return Context.getService(RapidSMSValidatorService.class);
+	}
+	
+	static JobTask createTask(JobType type) {
+		switch (type) {
+			case REPLAY:
+				return new ReplayJobTask(false);
+			case VALIDATE:
+				return new ReplayJobTask(true);
+			case EDIT_BIRTH_ENCOUNTERS:
+				return new EditBirthEncountersTask();
+			case VOID_RISK_AND_MAT_ENCOUNTERS:
+				return new VoidRiskAndMatEncountersTask();
+			default:
+				throw new IllegalArgumentException("Unknown job type " + type);
+		}
+	}
+	
+	private class JobRunner implements Runnable {
+		
+		private final Job job;
+		
+		private final UserContext userContext;
+		
+		JobRunner(Job job, UserContext userContext) {
+			this.job = job;
+			this.userContext = userContext;
+		}
+		
+		public void run() {
+			Context.openSession();
+			try {
+				Context.setUserContext(userContext);
+				if (job.isCancelRequested()) {
+					job.finished(JobStatus.CANCELLED, null);
+					return;
+				}
+				
+				job.started();
+				persist(job);
+				getService().deleteJobMessageStatuses(job.getId(), job.getCheckpoint());
+				log.info("Starting job " + job.getId() + " " + job.getType() + " after " + job.getCheckpoint());
+				createTask(job.getType()).run(job);
+				if (!job.isCancelRequested())
+					job.finished(JobStatus.COMPLETED, null);
+				else if (Thread.currentThread().isInterrupted() || executor == null)
+					job.finished(JobStatus.INTERRUPTED, null);
+				else
+					job.finished(JobStatus.CANCELLED, null);
+			}
+			catch (InterruptedException e) {
+				job.finished(JobStatus.INTERRUPTED, null);
+			}
+			catch (Throwable t) {
+				log.error("Job " + job.getId() + " failed", t);
+				job.finished(JobStatus.FAILED, t.toString());
+			}
+			finally {
+				try {
+					persist(job);
+				}
+				catch (RuntimeException e) {
+					log.error("Unable to persist job " + job.getId(), e);
+				}
+				log.info("Job " + job.getId() + " " + job.getStatus() + " at " + job.getCheckpoint() + ", "
+				        + job.getProcessed() + " processed, " + job.getFailed() + " failed");
+				Context.closeSession();
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+/**
+ * Life cycle of a {@link Job}.
+ */
+public enum JobStatus {
+	
+	QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED,
+	
+	/** the job was running when the module or the server stopped */
+	INTERRUPTED;
+	
+	/**
+	 * @return true if a job in this state can be resumed from its checkpoint
+	 */
+	public boolean isResumable() {
+		return this == CANCELLED || this == FAILED || this == INTERRUPTED;
+	}
+	
+	/**
+	 * @return true if the job is queued or running
+	 */
+	public boolean isActive() {
+		return this == QUEUED || this == RUNNING;
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+/**
+ * The work done by a {@link Job}. Runs on a job thread that has an open Context session. Work
+ * must start after {@link Job#getCheckpoint()}, report committed progress through
+ * {@link JobManager#checkpoint(Job, int)} and stop early once {@link Job#isCancelRequested()}.
+ */
+public interface JobTask {
+	
+	void run(Job job) throws Exception;
+}
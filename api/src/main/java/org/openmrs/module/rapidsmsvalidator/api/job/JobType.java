@@ -0,0 +1,32 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+/**
+ * The kinds of background jobs the module can run.
+ */
+public enum JobType {
+	
+	/** replays RapidSMS RISK and MAT messages from the PostEncounterLog table */
+	REPLAY,
+	
+	/** checks RapidSMS RISK and MAT messages from the PostEncounterLog table without writing anything */
+	VALIDATE,
+	
+	/** sets the datetime of birth encounters from their date of birth obs */
+	EDIT_BIRTH_ENCOUNTERS,
+	
+	/** voids RISK and MAT encounters so they can be replayed */
+	VOID_RISK_AND_MAT_ENCOUNTERS
+}
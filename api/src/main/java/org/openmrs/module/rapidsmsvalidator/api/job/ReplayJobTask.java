@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayEngine;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayMonitor;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ValidationResult;
+
+/**
+ * Replays the PostEncounterLogs of a job's id range with a {@link ReplayEngine}, or only validates
+ * them. A validation records the problems of every invalid message with its status and counts it
+ * as failed.
+ */
+public class ReplayJobTask implements JobTask {
+	
+	public static final String GP_CHUNK_SIZE = "rapidsmsvalidator.replay.chunkSize";
+	
+	private static final Log log = LogFactory.getLog(ReplayJobTask.class);
+	
+	private final boolean validating;
+	
+	public ReplayJobTask(boolean validating) {
+		this.validating = validating;
+	}
+	
+	public void run(final Job job) throws Exception {
+		if (job.getCheckpoint() >= job.getToId())
+			return;
+		
+		ReplayEngine engine = new ReplayEngine(Context.getService(RapidSMSValidatorService.class),
+		        job.getCheckpoint() + 1, job.getToId());
+		engine.setWorkers(job.getWorkers());
+		engine.setChunkSize(getChunkSize());
+		engine.setFiltered(true);
+		engine.setValidating(validating);
+		engine.setMonitor(new ReplayMonitor() {
+			
+			public void replayed(ReplayItem item, ReplayOutcome outcome) {
+				job.processed(outcome != ReplayOutcome.FAILED && outcome != ReplayOutcome.INVALID);
+				if (!validating)
+					JobManager.getInstance().record(job, item.getPostRequestId(), outcome.name());
+			}
+			
+			public void validated(ValidationResult result) {
+				JobManager.getInstance().record(job, result.getItem().getPostRequestId(), result.getOutcome().name(),
+				    result.getDetail());
+			}
+			
+			public void committed(int lastId) {
+				JobManager.getInstance().checkpoint(job, lastId);
+			}
+			
+			public boolean isCancelled() {
+				return job.isCancelRequested();
+			}
+		});
+		job.setStages(engine.getStages());
+		engine.run();
+		
+		if (!job.isCancelRequested())
+			JobManager.getInstance().checkpoint(job, job.getToId());
+		if (!engine.getFailedIds().isEmpty())
+			log.warn("Job " + job.getId() + " could not " + (validating ? "validate" : "replay") + " PostEncounterLogs "
+			        + engine.getFailedIds());
+	}
+	
+	private static int getChunkSize() {
+		String chunkSize = Context.getAdministrationService().getGlobalProperty(GP_CHUNK_SIZE,
+		    String.valueOf(ReplayEngine.DEFAULT_CHUNK_SIZE));
+		try {
+			return Integer.parseInt(chunkSize.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value for " + GP_CHUNK_SIZE + ": " + chunkSize);
+			return ReplayEngine.DEFAULT_CHUNK_SIZE;
+		}
+	}
+}
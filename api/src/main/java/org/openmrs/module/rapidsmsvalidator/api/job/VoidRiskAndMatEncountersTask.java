@@ -0,0 +1,65 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.VoidResult;
+
+/**
+ * Voids every RISK and MAT encounter, and their obs, so the messages can be replayed. The voided
+ * encounter types can be changed with the {@value #GP_ENCOUNTER_TYPES} global property.
+ */
+public class VoidRiskAndMatEncountersTask extends EncounterWindowTask {
+	
+	public static final int RISK_ENCOUNTER_TYPE_ID = 9;
+	
+	public static final int MAT_ENCOUNTER_TYPE_ID = 11;
+	
+	public static final String GP_ENCOUNTER_TYPES = "rapidsmsvalidator.void.encounterTypes";
+	
+	public static final String VOID_REASON = "replaced";
+	
+	private List<Integer> encounterTypeIds;
+	
+	@Override
+	public void run(Job job) throws Exception {
+		encounterTypeIds = getEncounterTypeIds();
+		log.info("Voiding encounters of types " + encounterTypeIds + " in " + job.getFromId() + " to " + job.getToId());
+		super.run(job);
+	}
+	
+	@Override
+	protected int process(int afterId, int toId) {
+		VoidResult result = getService().voidEncounters(encounterTypeIds, null, null, afterId, toId, VOID_REASON);
+		if (result.getEncounters() > 0)
+			log.info("Voided " + result + " for encounters " + (afterId + 1) + " to " + toId);
+		return result.getEncounters();
+	}
+	
+	private List<Integer> getEncounterTypeIds() {
+		String value = Context.getAdministrationService().getGlobalProperty(GP_ENCOUNTER_TYPES,
+		    RISK_ENCOUNTER_TYPE_ID + "," + MAT_ENCOUNTER_TYPE_ID);
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String id : value.split(",")) {
+			if (id.trim().length() > 0)
+				ids.add(Integer.valueOf(id.trim()));
+		}
+		if (ids.isEmpty())
+			throw new IllegalArgumentException(GP_ENCOUNTER_TYPES + " does not name any encounter type");
+		return ids;
+	}
+}
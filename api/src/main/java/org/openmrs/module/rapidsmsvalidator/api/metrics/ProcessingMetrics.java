@@ -0,0 +1,259 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.module.rapidsmsvalidator.api.util.ConceptCache;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.ProviderResolver;
+
+/**
+ * Timings of the {@link ProcessingStage}s, message counts by admission type and outcome, and the
+ * hit ratios of the lookup caches. Published over JMX as {@value #OBJECT_NAME} and as JSON by the
+ * manage controller.
+ * <p>
+ * Recording is switched by the {@value #GP_ENABLED} global property. While it is off,
+ * {@link #start()} and {@link #lap(ProcessingStage, long)} only read a volatile flag, so callers
+ * time a stage with:
+ * 
+ * <pre>
+ * long time = metrics.start();
+ * ...
+ * time = metrics.lap(ProcessingStage.PATIENT, time);
+ * </pre>
+ */
+public class ProcessingMetrics implements ProcessingMetricsMXBean, GlobalPropertyListener {
+	
+	public static final String GP_ENABLED = "rapidsmsvalidator.metrics.enabled";
+	
+	public static final String OBJECT_NAME = "org.openmrs.module.rapidsmsvalidator:type=ProcessingMetrics";
+	
+	public static final String NO_ADMISSION_TYPE = "NONE";
+	
+	private static final ProcessingMetrics INSTANCE = new ProcessingMetrics();
+	
+	private static final Log log = LogFactory.getLog(ProcessingMetrics.class);
+	
+	private static final ReplayOutcome[] OUTCOMES = ReplayOutcome.values();
+	
+	private final Histogram[] stages = new Histogram[ProcessingStage.values().length];
+	
+	private final ConcurrentMap<String, AtomicLongArray> messages = new ConcurrentHashMap<String, AtomicLongArray>();
+	
+	private volatile boolean enabled;
+	
+	public ProcessingMetrics() {
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new Histogram();
+	}
+	
+	public static ProcessingMetrics getInstance() {
+		return INSTANCE;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Reads {@value #GP_ENABLED}, called when the module starts.
+	 */
+	public void refresh() {
+		setEnabled(isTrue(Context.getAdministrationService().getGlobalProperty(GP_ENABLED)));
+	}
+	
+	/**
+	 * @return the current time in nanoseconds, or 0 if recording is off
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Records the time since start for a stage, unless start is 0.
+	 * 
+	 * @param start the result of {@link #start()} or of a previous lap
+	 * @return the start of the next stage
+	 */
+	public long lap(ProcessingStage stage, long start) {
+		if (start == 0)
+			return 0;
+		long now = System.nanoTime();
+		stages[stage.ordinal()].record(now - start);
+		return now;
+	}
+	
+	/**
+	 * Counts one message, if recording is on.
+	 * 
+	 * @param admissionType PV1-4 of the message, null if it has none
+	 */
+	public void count(String admissionType, ReplayOutcome outcome) {
+		if (!enabled)
+			return;
+		String type = admissionType == null || admissionType.length() == 0 ? NO_ADMISSION_TYPE : admissionType;
+		AtomicLongArray counts = messages.get(type);
+		if (counts == null) {
+			AtomicLongArray created = new AtomicLongArray(OUTCOMES.length);
+			counts = messages.putIfAbsent(type, created);
+			if (counts == null)
+				counts = created;
+		}
+		counts.incrementAndGet(outcome.ordinal());
+	}
+	
+	public Histogram getHistogram(ProcessingStage stage) {
+		return stages[stage.ordinal()];
+	}
+	
+	/**
+	 * @return the non zero message counts by admission type and outcome, sorted by admission type
+	 */
+	public Map<String, Map<ReplayOutcome, Long>> getMessages() {
+		Map<String, Map<ReplayOutcome, Long>> result = new TreeMap<String, Map<ReplayOutcome, Long>>();
+		for (Map.Entry<String, AtomicLongArray> entry : messages.entrySet()) {
+			Map<ReplayOutcome, Long> counts = new LinkedHashMap<ReplayOutcome, Long>();
+			for (ReplayOutcome outcome : OUTCOMES) {
+				long count = entry.getValue().get(outcome.ordinal());
+				if (count > 0)
+					counts.put(outcome, count);
+			}
+			result.put(entry.getKey(), counts);
+		}
+		return result;
+	}
+	
+	public Map<String, Long> getStageCounts() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (ProcessingStage stage : ProcessingStage.values())
+			result.put(stage.name().toLowerCase(), getHistogram(stage).getCount());
+		return result;
+	}
+	
+	public Map<String, Double> getStageLatencies() {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		for (ProcessingStage stage : ProcessingStage.values()) {
+			String name = stage.name().toLowerCase();
+			Histogram histogram = getHistogram(stage);
+			result.put(name + ".mean", histogram.getMean() / 1000);
+			result.put(name + ".p50", histogram.getPercentile(50) / 1000.0);
+			result.put(name + ".p90", histogram.getPercentile(90) / 1000.0);
+			result.put(name + ".p99", histogram.getPercentile(99) / 1000.0);
+			result.put(name + ".max", histogram.getMax() / 1000.0);
+		}
+		return result;
+	}
+	
+	public Map<String, Long> getMessageCounts() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Map<ReplayOutcome, Long>> type : getMessages().entrySet()) {
+			for (Map.Entry<ReplayOutcome, Long> outcome : type.getValue().entrySet())
+				result.put(type.getKey() + "." + outcome.getKey(), outcome.getValue());
+		}
+		return result;
+	}
+	
+	public Map<String, Double> getCacheHitRatios() {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		result.put("patient", PatientResolver.getInstance().getPatientCache().getHitRatio());
+		result.put("patientNotFound", PatientResolver.getInstance().getNotFoundCache().getHitRatio());
+		result.put("provider", ProviderResolver.getInstance().getCache().getHitRatio());
+		result.put("conceptMapping", ConceptCache.getInstance().getMappingCache().getHitRatio());
+		result.put("conceptName", ConceptCache.getInstance().getNameCache().getHitRatio());
+		return result;
+	}
+	
+	/**
+	 * Clears the timings and message counts, the cache statistics are kept by the caches.
+	 */
+	public void reset() {
+		for (Histogram histogram : stages)
+			histogram.reset();
+		messages.clear();
+	}
+	
+	/**
+	 * Registers this instance with the platform MBean server, replacing an earlier registration
+	 * left by a previous start of the module.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		}
+		catch (Exception e) {
+			log.warn("Could not register " + OBJECT_NAME, e);
+		}
+	}
+	
+	public void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		}
+		catch (Exception e) {
+			log.warn("Could not unregister " + OBJECT_NAME, e);
+		}
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_ENABLED.equals(propertyName);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		setEnabled(isTrue(newValue.getPropertyValue()));
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	public void globalPropertyDeleted(String propertyName) {
+		setEnabled(false);
+	}
+	
+	private static boolean isTrue(String value) {
+		return value != null && Boolean.parseBoolean(value.trim());
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link ProcessingMetrics}. Durations are in microseconds.
+ */
+public interface ProcessingMetricsMXBean {
+	
+	boolean isEnabled();
+	
+	void setEnabled(boolean enabled);
+	
+	/**
+	 * @return the number of recorded timings per stage
+	 */
+	Map<String, Long> getStageCounts();
+	
+	/**
+	 * @return mean, p50, p90, p99 and max per stage, keyed like "parse.p99"
+	 */
+	Map<String, Double> getStageLatencies();
+	
+	/**
+	 * @return the number of messages per admission type and outcome, keyed like "RISK.PROCESSED"
+	 */
+	Map<String, Long> getMessageCounts();
+	
+	/**
+	 * @return the hit ratio of each lookup cache
+	 */
+	Map<String, Double> getCacheHitRatios();
+	
+	void reset();
+}
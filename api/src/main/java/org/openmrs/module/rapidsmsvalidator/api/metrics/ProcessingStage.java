@@ -0,0 +1,41 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.metrics;
+
+/**
+ * The timed steps of applying a message, see {@link ProcessingMetrics}.
+ */
+public enum ProcessingStage {
+	
+	/** HAPI parsing of the raw message */
+	PARSE,
+	
+	/** finding the patient by ECID */
+	PATIENT,
+	
+	/** finding or creating the provider by EPID */
+	PROVIDER,
+	
+	/** finding the location by FOSA id */
+	LOCATION,
+	
+	/** converting the OBX segments into observations */
+	OBS,
+	
+	/** saving the encounter */
+	SAVE,
+	
+	/** inserting the obs batch and the processed message index */
+	INSERT
+}
@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+/**
+ * Reads single fields out of an ER7 encoded message without parsing it, e.g. to route a message
+ * before it is handed to HAPI.
+ */
+public class Hl7RawScanner {
+	
+	private Hl7RawScanner() {
+	}
+	
+	/**
+	 * Returns the first component of the first repetition of a field. Fields are numbered as in
+	 * the HL7 specification, so for MSH the field separator itself is field 1 and the first
+	 * field that can be read is MSH-3.
+	 * 
+	 * @param hl7 the ER7 encoded message
+	 * @param segment the three letter segment id, the first segment with that id is used
+	 * @param field the field number
+	 * @return the component, an empty string if the field is empty, or null if the segment or field
+	 *         does not exist
+	 */
+	public static String getField(String hl7, String segment, int field) {
+		int begin = findField(hl7, segment, field);
+		if (begin < 0)
+			return null;
+		return hl7.substring(begin, endOfComponent(hl7, begin));
+	}
+	
+	/**
+	 * Checks the first component of the first repetition of a field against some values without
+	 * allocating anything, see {@link #getField(String, String, int)}.
+	 * 
+	 * @return true if the component equals one of values
+	 */
+	public static boolean fieldEquals(String hl7, String segment, int field, String... values) {
+		int begin = findField(hl7, segment, field);
+		if (begin < 0)
+			return false;
+		int length = endOfComponent(hl7, begin) - begin;
+		for (String value : values) {
+			if (value.length() == length && hl7.regionMatches(begin, value, 0, length))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the index of the first character of the field, or -1 if the message, segment or field
+	 *         does not exist
+	 */
+	static int findField(String hl7, String segment, int field) {
+		if (hl7 == null || hl7.length() < 8 || !hl7.startsWith("MSH"))
+			return -1;
+		char fieldSeparator = hl7.charAt(3);
+		
+		int start = findSegment(hl7, segment);
+		if (start < 0)
+			return -1;
+		
+		// the separator after the segment id precedes field 1, or MSH-2 since MSH-1 is the separator
+		int skip = "MSH".equals(segment) ? field - 2 : field - 1;
+		int position = start + 3;
+		for (int i = 0; i < skip; i++) {
+			if (position >= hl7.length() || hl7.charAt(position) != fieldSeparator)
+				return -1;
+			position = endOfField(hl7, position + 1, fieldSeparator);
+		}
+		if (position >= hl7.length() || hl7.charAt(position) != fieldSeparator)
+			return -1;
+		return position + 1;
+	}
+	
+	static int endOfComponent(String hl7, int position) {
+		char fieldSeparator = hl7.charAt(3);
+		char componentSeparator = hl7.charAt(4);
+		char repetitionSeparator = hl7.charAt(5);
+		while (position < hl7.length()) {
+			char c = hl7.charAt(position);
+			if (c == fieldSeparator || c == componentSeparator || c == repetitionSeparator || c == '\r' || c == '\n')
+				break;
+			position++;
+		}
+		return position;
+	}
+	
+	static int findSegment(String hl7, String segment) {
+		int position = 0;
+		while (position < hl7.length()) {
+			if (hl7.startsWith(segment, position) && position + 3 < hl7.length()
+			        && hl7.charAt(position + 3) == hl7.charAt(3))
+				return position;
+			position = nextSegment(hl7, position);
+		}
+		return -1;
+	}
+	
+	static int nextSegment(String hl7, int position) {
+		while (position < hl7.length() && hl7.charAt(position) != '\r' && hl7.charAt(position) != '\n')
+			position++;
+		while (position < hl7.length() && (hl7.charAt(position) == '\r' || hl7.charAt(position) == '\n'))
+			position++;
+		return position;
+	}
+	
+	static int endOfField(String hl7, int position, char fieldSeparator) {
+		while (position < hl7.length()) {
+			char c = hl7.charAt(position);
+			if (c == fieldSeparator || c == '\r' || c == '\n')
+				break;
+			position++;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingMetrics;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingStage;
+import org.openmrs.module.rapidsmsvalidator.api.util.Hl7Parsers;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.ProviderResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsNotificationHandler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.app.ApplicationException;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.v25.message.ORU_R01;
+import ca.uhn.hl7v2.model.v25.segment.PV1;
+
+/**
+ * Parses logged messages and hands the RapidSMS RISK and MAT notifications among them to the
+ * {@link RsmsNotificationHandler}.
+ * <p>
+ * Parsing ({@link #parse(ReplayItem)}) uses the parser of the calling thread (see {@link Hl7Parsers})
+ * and needs no Context session. Processing uses the handler owned by the instance, so an instance
+ * must only be used by one thread, and only while that thread has an open Context session.
+ */
+public class MessageReplayer {
+	
+	public static final String SENDING_APPLICATION = "RAPIDSMS";
+	
+	// arrays rather than varargs, so the pre-filter allocates nothing
+	private static final String[] SENDING_APPLICATIONS = { SENDING_APPLICATION };
+	
+	private static final String[] REPLAYED_ADMISSION_TYPE_VALUES = { "RISK", "MAT" };
+	
+	public static final Set<String> REPLAYED_ADMISSION_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays
+	        .asList(REPLAYED_ADMISSION_TYPE_VALUES)));
+	
+	private static final Log log = LogFactory.getLog(MessageReplayer.class);
+	
+	private final RsmsNotificationHandler handler = new RsmsNotificationHandler();
+	
+	public ReplayOutcome replay(ReplayItem item) {
+		return replay(Collections.singletonList(item)).get(0);
+	}
+	
+	/**
+	 * Parses and replays several logs in order.
+	 * 
+	 * @return the outcome of each log, in the order of items
+	 */
+	public List<ReplayOutcome> replay(List<ReplayItem> items) {
+		List<ParsedItem> parsed = new ArrayList<ParsedItem>(items.size());
+		for (ReplayItem item : items)
+			parsed.add(parse(item));
+		return process(parsed);
+	}
+	
+	/**
+	 * Parses a log if it is a RapidSMS RISK or MAT notification. Needs no Context session, so it can
+	 * run on any thread, using that thread's parser.
+	 */
+	public static ParsedItem parse(ReplayItem item) {
+		String hl7 = item.getHl7data();
+		if (hl7 == null)
+			return new ParsedItem(item, null, ReplayOutcome.NO_DATA);
+		
+		// most logs are not replayed, classify them on the raw message before paying for a parse
+		if (!Hl7RawScanner.fieldEquals(hl7, "MSH", 3, SENDING_APPLICATIONS))
+			return new ParsedItem(item, null, ReplayOutcome.NOT_RAPIDSMS);
+		if (!Hl7RawScanner.fieldEquals(hl7, "PV1", 4, REPLAYED_ADMISSION_TYPE_VALUES))
+			return new ParsedItem(item, null, ReplayOutcome.IGNORED_TYPE);
+		
+		try {
+			ProcessingMetrics metrics = ProcessingMetrics.getInstance();
+			long time = metrics.start();
+			Message message = Hl7Parsers.getParser().parse(hl7);
+			metrics.lap(ProcessingStage.PARSE, time);
+			if (!(message instanceof ORU_R01))
+				return new ParsedItem(item, null, ReplayOutcome.NOT_RAPIDSMS);
+			
+			ORU_R01 oru = (ORU_R01) message;
+			if (!SENDING_APPLICATION.equals(oru.getMSH().getSendingApplication().getNamespaceID().getValue()))
+				return new ParsedItem(item, null, ReplayOutcome.NOT_RAPIDSMS);
+			if (!REPLAYED_ADMISSION_TYPES.contains(getPV1(oru).getAdmissionType().getValue()))
+				return new ParsedItem(item, null, ReplayOutcome.IGNORED_TYPE);
+			
+			return new ParsedItem(item, oru, null);
+		}
+		catch (HL7Exception e) {
+			log.error("Unable to parse PostEncounterLog " + item.getPostRequestId(), e);
+			return new ParsedItem(item, null, ReplayOutcome.FAILED);
+		}
+	}
+	
+	/**
+	 * Replays parsed logs in order. The patients and providers of all of them, and whether they were
+	 * already applied, are resolved first with one query each (see
+	 * {@link PatientResolver#prefetch(Collection)}, {@link ProviderResolver#prefetch(Collection)} and
+	 * {@link RsmsNotificationHandler#prefetchAppliedMessages(Collection)}), so the handler finds them
+	 * cached. Facilities
+	 * are served by the in memory {@link org.openmrs.module.rapidsmsvalidator.api.util.LocationIndex}.
+	 * 
+	 * @return the outcome of each log, in the order of items
+	 */
+	public List<ReplayOutcome> process(List<ParsedItem> items) {
+		Set<String> ecids = new HashSet<String>();
+		Set<String> epids = new HashSet<String>();
+		Set<String> messageKeys = new HashSet<String>();
+		for (ParsedItem item : items) {
+			if (item.getMessage() == null)
+				continue;
+			try {
+				ecids.add(RsmsNotificationHandler.getEcid(item.getMessage().getPATIENT_RESULT().getPATIENT().getPID()));
+				epids.add(getPV1(item.getMessage()).getAttendingDoctor(0).getIDNumber().getValue());
+				messageKeys.add(RsmsNotificationHandler.getMessageKey(item.getMessage()));
+			}
+			catch (HL7Exception e) {
+				// the handler reports it
+			}
+		}
+		PatientResolver.getInstance().prefetch(ecids);
+		ProviderResolver.getInstance().prefetch(epids);
+		handler.prefetchAppliedMessages(messageKeys);
+		
+		List<ReplayOutcome> outcomes = new ArrayList<ReplayOutcome>(items.size());
+		for (ParsedItem item : items) {
+			if (item.getMessage() == null) {
+				outcomes.add(item.getOutcome());
+				continue;
+			}
+			try {
+				handler.processMessage(item.getMessage());
+				outcomes.add(handler.isLastMessageDuplicate() ? ReplayOutcome.DUPLICATE : ReplayOutcome.PROCESSED);
+			}
+			catch (ApplicationException e) {
+				log.error("Unable to process PostEncounterLog " + item.getItem().getPostRequestId(), e);
+				outcomes.add(ReplayOutcome.FAILED);
+			}
+		}
+		return outcomes;
+	}
+	
+	private static PV1 getPV1(ORU_R01 oru) {
+		return oru.getPATIENT_RESULT().getPATIENT().getVISIT().getPV1();
+	}
+}
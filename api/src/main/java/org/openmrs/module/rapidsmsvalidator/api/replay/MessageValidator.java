@@ -0,0 +1,236 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.module.rapidsmsvalidator.api.util.ConceptCache;
+import org.openmrs.module.rapidsmsvalidator.api.util.Hl7DateParser;
+import org.openmrs.module.rapidsmsvalidator.api.util.LocationIndex;
+import org.openmrs.module.rapidsmsvalidator.api.util.ObsValueType;
+import org.openmrs.module.rapidsmsvalidator.api.util.ObxPlan;
+import org.openmrs.module.rapidsmsvalidator.api.util.ObxPlans;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.ProviderResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsNotificationHandler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Primitive;
+import ca.uhn.hl7v2.model.Type;
+import ca.uhn.hl7v2.model.Varies;
+import ca.uhn.hl7v2.model.v25.datatype.CE;
+import ca.uhn.hl7v2.model.v25.datatype.CWE;
+import ca.uhn.hl7v2.model.v25.datatype.NM;
+import ca.uhn.hl7v2.model.v25.datatype.TS;
+import ca.uhn.hl7v2.model.v25.datatype.XCN;
+import ca.uhn.hl7v2.model.v25.group.ORU_R01_ORDER_OBSERVATION;
+import ca.uhn.hl7v2.model.v25.message.ORU_R01;
+import ca.uhn.hl7v2.model.v25.segment.OBX;
+
+/**
+ * Checks parsed notifications the way the {@link RsmsNotificationHandler} would resolve them, with
+ * the same {@link ObxPlans} and {@link Hl7DateParser}, without writing anything: no encounter, obs,
+ * provider or metadata is created. Lookups go through the same caches as a replay, so a dry run also
+ * warms them up.
+ * <p>
+ * Instances hold no state and can be shared, but like a replay they need an open Context session.
+ */
+public class MessageValidator {
+	
+	private static final Log log = LogFactory.getLog(MessageValidator.class);
+	
+	/**
+	 * Validates parsed logs in order. The patients of all of them are resolved first with one query.
+	 * 
+	 * @return the result of each log, in the order of items
+	 */
+	public List<ValidationResult> validate(List<ParsedItem> items) {
+		Set<String> ecids = new HashSet<String>();
+		for (ParsedItem item : items) {
+			if (item.getMessage() == null)
+				continue;
+			try {
+				ecids.add(RsmsNotificationHandler.getEcid(item.getMessage().getPATIENT_RESULT().getPATIENT().getPID()));
+			}
+			catch (HL7Exception e) {
+				// reported by validate(ParsedItem)
+			}
+		}
+		PatientResolver.getInstance().prefetch(ecids);
+		
+		List<ValidationResult> results = new ArrayList<ValidationResult>(items.size());
+		for (ParsedItem item : items)
+			results.add(validate(item));
+		return results;
+	}
+	
+	public ValidationResult validate(ParsedItem item) {
+		ORU_R01 oru = item.getMessage();
+		if (oru == null)
+			return new ValidationResult(item.getItem(), item.getOutcome());
+		
+		ValidationResult result = new ValidationResult(item.getItem(), null);
+		try {
+			String ecid = RsmsNotificationHandler.getEcid(oru.getPATIENT_RESULT().getPATIENT().getPID());
+			if (ecid == null)
+				result.fail(ValidationCheck.PATIENT, "no ECID in PID-3");
+			else if (PatientResolver.getInstance().getPatient(ecid) == null)
+				result.fail(ValidationCheck.PATIENT, "ECID " + ecid + " does not match exactly one patient");
+			
+			XCN attendingDoctor = oru.getPATIENT_RESULT().getPATIENT().getVISIT().getPV1().getAttendingDoctor(0);
+			String epid = attendingDoctor.getIDNumber().getValue();
+			if (epid == null)
+				result.fail(ValidationCheck.PROVIDER, "no EPID in PV1-7");
+			else if (ProviderResolver.getInstance().findProviderId(epid) == null)
+				result.fail(ValidationCheck.PROVIDER, "EPID " + epid + " has no provider, a replay would create one");
+			
+			String facility = oru.getMSH().getSendingFacility().getNamespaceID().getValue();
+			if (LocationIndex.getInstance().getLocationId(facility) == null)
+				result.fail(ValidationCheck.LOCATION, "facility " + facility + " does not match a location");
+			
+			ORU_R01_ORDER_OBSERVATION order = oru.getPATIENT_RESULT().getORDER_OBSERVATION(0);
+			try {
+				RsmsNotificationHandler.getEncounterDate(order.getOBR());
+			}
+			catch (HL7Exception e) {
+				result.fail(ValidationCheck.ENCOUNTER_DATE, e.getMessage());
+			}
+			for (int i = 0; i < order.getOBSERVATIONReps(); i++)
+				validate(order.getOBSERVATION(i).getOBX(), result);
+		}
+		catch (HL7Exception e) {
+			log.debug("Unable to read PostEncounterLog " + item.getItem().getPostRequestId(), e);
+			return new ValidationResult(item.getItem(), ReplayOutcome.FAILED, e.getMessage());
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks an OBX against the {@link ObxPlan} the handler would use, so that a value a replay rejects
+	 * is reported here too.
+	 */
+	private void validate(OBX obx, ValidationResult result) throws HL7Exception {
+		Varies[] values = obx.getObservationValue();
+		if (values == null || values.length < 1)
+			return;
+		
+		CE identifier = obx.getObservationIdentifier();
+		String code = identifier.getIdentifier().getValue();
+		String codingSystem = identifier.getNameOfCodingSystem().getValue();
+		Concept concept = ConceptCache.getInstance().getConceptByMapping(code, codingSystem);
+		if (concept == null) {
+			result.fail(ValidationCheck.CONCEPT, "OBX-3 " + codingSystem + ":" + code + " does not match a concept");
+			return;
+		}
+		
+		String hl7Datatype = values[0].getName();
+		ObxPlan plan;
+		try {
+			plan = ObxPlans.getInstance().getPlan(identifier, hl7Datatype);
+		}
+		catch (HL7Exception e) {
+			result.fail(ValidationCheck.DATATYPE, "OBX-5 of " + code + ": " + e.getMessage());
+			return;
+		}
+		
+		String conceptDatatype = concept.getDatatype().getHl7Abbreviation();
+		Type value = values[0].getData();
+		switch (plan.getValueType()) {
+			case NUMERIC: {
+				String number = ((NM) value).getValue();
+				if (number == null || number.length() == 0)
+					return;
+				// 0 and 1 are also stored as booleans and as the true and false concepts
+				boolean bool = number.equals("0") || number.equals("1");
+				if (!"NM".equals(conceptDatatype)
+				        && !(bool && ("BIT".equals(conceptDatatype) || "CWE".equals(conceptDatatype))))
+					fail(result, code, hl7Datatype, conceptDatatype);
+				else if (!bool && !isNumeric(number))
+					result.fail(ValidationCheck.DATATYPE, "OBX-5 of " + code + " is not numeric: " + number);
+				else if (bool && plan.getBooleanValueType() == ObsValueType.CODED_BOOLEAN) {
+					Integer answerId = plan.getBooleanConceptId(number.equals("1"));
+					if (answerId == null || !plan.isAnswer(answerId))
+						result.fail(ValidationCheck.CONCEPT, "OBX-5 of " + code + " is " + number + " but concept "
+						        + answerId + " is not an answer of concept " + plan.getConceptId());
+				}
+				break;
+			}
+			case CODED_WITH_NAME: {
+				if (!"CWE".equals(conceptDatatype))
+					fail(result, code, hl7Datatype, conceptDatatype);
+				// looked up exactly as the handler does
+				String name = ((CWE) value).getIdentifier().getName();
+				if (ConceptCache.getInstance().getConceptByName(name) == null)
+					result.fail(ValidationCheck.CONCEPT, "OBX-5 of " + code + " does not match a concept by name " + name);
+				break;
+			}
+			case CODED: {
+				if (!"CWE".equals(conceptDatatype))
+					fail(result, code, hl7Datatype, conceptDatatype);
+				CE coded = (CE) value;
+				String valueCode = coded.getIdentifier().getValue();
+				String valueSystem = coded.getNameOfCodingSystem().getValue();
+				if (ConceptCache.getInstance().getConceptByMapping(valueCode, valueSystem) == null)
+					result.fail(ValidationCheck.CONCEPT, "OBX-5 of " + code + ", " + valueSystem + ":" + valueCode
+					        + " does not match a concept");
+				break;
+			}
+			case DATETIME:
+			case TIME: {
+				if (!hl7Datatype.equals(conceptDatatype))
+					fail(result, code, hl7Datatype, conceptDatatype);
+				// read exactly as the handler does
+				String text = "TS".equals(hl7Datatype) ? ((TS) value).getTime().getValue() : ((Primitive) value).getValue();
+				if (text == null || text.length() == 0)
+					return;
+				try {
+					Hl7DateParser parser = Hl7DateParser.getInstance();
+					if (plan.getValueType() == ObsValueType.TIME)
+						parser.parseTime(text);
+					else
+						parser.parse(text);
+				}
+				catch (IllegalArgumentException e) {
+					result.fail(ValidationCheck.DATATYPE, "OBX-5 of " + code + " is not a valid " + hl7Datatype + ": "
+					        + text);
+				}
+				break;
+			}
+			default:
+				if (!hl7Datatype.equals(conceptDatatype))
+					fail(result, code, hl7Datatype, conceptDatatype);
+		}
+	}
+	
+	private static void fail(ValidationResult result, String code, String hl7Datatype, String conceptDatatype) {
+		result.fail(ValidationCheck.DATATYPE, "OBX-5 of " + code + " is " + hl7Datatype + " but its concept is "
+		        + conceptDatatype);
+	}
+	
+	private static boolean isNumeric(String value) {
+		try {
+			Double.valueOf(value);
+			return true;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import ca.uhn.hl7v2.model.v25.message.ORU_R01;
+
+/**
+ * A {@link ReplayItem} after the parse stage: either the parsed notification to replay, or the
+ * outcome if it is not replayed. Built by {@link MessageReplayer#parse(ReplayItem)}.
+ */
+public class ParsedItem {
+	
+	private final ReplayItem item;
+	
+	private final ORU_R01 message;
+	
+	private final ReplayOutcome outcome;
+	
+	ParsedItem(ReplayItem item, ORU_R01 message, ReplayOutcome outcome) {
+		this.item = item;
+		this.message = message;
+		this.outcome = outcome;
+	}
+	
+	public ReplayItem getItem() {
+		return item;
+	}
+	
+	/**
+	 * @return the notification, or null if the log is not replayed
+	 */
+	public ORU_R01 getMessage() {
+		return message;
+	}
+	
+	/**
+	 * @return why the log is not replayed, or null if it is
+	 */
+	public ReplayOutcome getOutcome() {
+		return outcome;
+	}
+}
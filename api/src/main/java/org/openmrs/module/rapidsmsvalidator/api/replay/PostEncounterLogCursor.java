@@ -0,0 +1,117 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * Walks a postRequestId range in keyset pages so that only one page of logs (and their hl7data) is
+ * held in memory at a time. Pages are read as {@link ReplayItem}s, only the id and hl7data columns,
+ * so nothing is hydrated or kept in the Hibernate session.
+ * <p>
+ * Not thread safe, a cursor belongs to the thread that reads it.
+ */
+public class PostEncounterLogCursor implements Iterator<ReplayItem> {
+	
+	public static final int DEFAULT_PAGE_SIZE = 200;
+	
+	private final RapidSMSValidatorService service;
+	
+	private final int toId;
+	
+	private final int pageSize;
+	
+	private int lastId;
+	
+	private List<ReplayItem> page = Collections.emptyList();
+	
+	private int position;
+	
+	private boolean exhausted;
+	
+	private String sendingApplication;
+	
+	/**
+	 * @param service the service used to fetch pages
+	 * @param fromId first postRequestId of the range, inclusive
+	 * @param toId last postRequestId of the range, inclusive
+	 * @param pageSize number of logs fetched per query
+	 */
+	public PostEncounterLogCursor(RapidSMSValidatorService service, int fromId, int toId, int pageSize) {
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize must be positive");
+		this.service = service;
+		this.toId = toId;
+		this.pageSize = pageSize;
+		this.lastId = fromId - 1;
+	}
+	
+	/**
+	 * Makes the database skip logs that are not from the application.
+	 * 
+	 * @see RapidSMSValidatorService#getReplayItemPage(int, int, int, String)
+	 */
+	public void setFilter(String sendingApplication) {
+		this.sendingApplication = sendingApplication;
+	}
+	
+	public boolean hasNext() {
+		if (position < page.size())
+			return true;
+		if (exhausted)
+			return false;
+		fetchNextPage();
+		return position < page.size();
+	}
+	
+	public ReplayItem next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		ReplayItem item = page.get(position++);
+		lastId = item.getPostRequestId();
+		return item;
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * @return the postRequestId of the last log returned by {@link #next()}
+	 */
+	public int getLastId() {
+		return lastId;
+	}
+	
+	/**
+	 * Drops the current page. The cursor can not be used afterwards.
+	 */
+	public void close() {
+		page = Collections.emptyList();
+		position = 0;
+		exhausted = true;
+	}
+	
+	private void fetchNextPage() {
+		page = service.getReplayItemPage(lastId, toId, pageSize, sendingApplication);
+		position = 0;
+		if (page.size() < pageSize)
+			exhausted = true;
+	}
+}
@@ -0,0 +1,656 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingMetrics;
+
+/**
+ * Replays a postRequestId range with a pool of workers.
+ * <p>
+ * The replay is a pipeline of three stages connected by bounded queues, so that reading, parsing
+ * and writing overlap instead of waiting for each other:
+ * <ol>
+ * <li>fetch: the calling thread reads the range through a {@link PostEncounterLogCursor} and routes
+ * every log to a partition by hashing the PID-3 patient identifier,</li>
+ * <li>parse: one thread per partition classifies and parses the logs, without a Context session,</li>
+ * <li>persist: one worker per partition, with its own Context session and notification handler,
+ * resolves and saves the parsed messages.</li>
+ * </ol>
+ * All messages of one patient go through the same partition and are replayed in postRequestId
+ * order. A full queue blocks the stage in front of it, so no stage gets far ahead of the next.
+ * {@link #getStages()} shows the depth, throughput and load of each stage.
+ * <p>
+ * Logs are dispatched in batches of one page. A batch counts as committed once all of its logs are
+ * replayed and all earlier batches are committed, which is what {@link ReplayMonitor#committed(int)}
+ * reports, so a cancelled replay can safely restart after the last committed id.
+ * <p>
+ * Workers replay the logs they take from their queue in chunks of up to {@link #setChunkSize(int)}
+ * logs, each in one transaction, and clear their session after every chunk so it does not grow over
+ * a long replay. Logs that are not replayed, or failed to parse, keep their outcome without a
+ * transaction. If the handler fails on some logs of a chunk, the chunk is rolled back and replayed
+ * again without them; if it fails otherwise its logs are replayed again one per transaction. The
+ * logs that fail end up in {@link #getFailedIds()}. If a worker fails outside of a log, for instance
+ * while reporting or clearing its session, the logs of that chunk count as failed but are never
+ * released, and the whole replay stops: {@link #run()} then throws once every worker has drained
+ * its queue, with the checkpoint still before that chunk.
+ * <p>
+ * With {@link #setValidating(boolean)} the last stage validates instead of replaying: every chunk is
+ * checked in a read only transaction and nothing is written, so a dry run can use all workers
+ * against a live database.
+ */
+public class ReplayEngine {
+	
+	public static final int DEFAULT_QUEUE_CAPACITY = 100;
+	
+	public static final int DEFAULT_CHUNK_SIZE = 50;
+	
+	private static final Entry END = new Entry(null, null);
+	
+	private static final Log log = LogFactory.getLog(ReplayEngine.class);
+	
+	private final RapidSMSValidatorService service;
+	
+	private final int fromId;
+	
+	private final int toId;
+	
+	private int workers = 1;
+	
+	private int pageSize = PostEncounterLogCursor.DEFAULT_PAGE_SIZE;
+	
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	
+	private final AtomicLong read = new AtomicLong();
+	
+	private final AtomicLong[] outcomes = new AtomicLong[ReplayOutcome.values().length];
+	
+	private final LinkedList<Batch> pending = new LinkedList<Batch>();
+	
+	private final List<Integer> failedIds = Collections.synchronizedList(new ArrayList<Integer>());
+	
+	private ReplayMonitor monitor;
+	
+	private boolean filtered;
+	
+	private volatile boolean cancelled;
+	
+	private volatile RuntimeException error;
+	
+	private final StageStats fetchStage = new StageStats("fetch");
+	
+	private final StageStats parseStage = new StageStats("parse");
+	
+	private StageStats persistStage = new StageStats("persist");
+	
+	private MessageValidator validator;
+	
+	public ReplayEngine(RapidSMSValidatorService service, int fromId, int toId) {
+		this.service = service;
+		this.fromId = fromId;
+		this.toId = toId;
+		for (int i = 0; i < outcomes.length; i++)
+			outcomes[i] = new AtomicLong();
+	}
+	
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+	
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+	
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+	
+	/**
+	 * @param filtered true to let the database skip logs that are not from RapidSMS; these, and the
+	 *            RapidSMS logs that are not RISK or MAT notifications, are then not reported to the
+	 *            monitor at all
+	 */
+	public void setFiltered(boolean filtered) {
+		this.filtered = filtered;
+	}
+	
+	private boolean isReported(ReplayOutcome outcome) {
+		return monitor != null && !(filtered && outcome == ReplayOutcome.IGNORED_TYPE);
+	}
+	
+	/**
+	 * @param validating true to only validate the logs with a {@link MessageValidator}, in read only
+	 *            transactions, instead of replaying them
+	 */
+	public void setValidating(boolean validating) {
+		validator = validating ? new MessageValidator() : null;
+		persistStage = new StageStats(validating ? "validate" : "persist");
+	}
+	
+	public void setMonitor(ReplayMonitor monitor) {
+		this.monitor = monitor;
+	}
+	
+	/**
+	 * Stops reading and makes the workers skip what is still queued.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		if (!cancelled && monitor != null && monitor.isCancelled())
+			cancelled = true;
+		return cancelled;
+	}
+	
+	/**
+	 * Replays the whole range and returns once every worker is done. Must be called by a thread
+	 * with an open Context session, whose user context is shared with the workers.
+	 * 
+	 * @throws APIException if a worker failed outside of a log, the replay is then stopped before the
+	 *             logs it could not finish
+	 */
+	public void run() throws InterruptedException {
+		UserContext userContext = Context.getUserContext();
+		CountDownLatch done = new CountDownLatch(workers);
+		fetchStage.start(1);
+		parseStage.start(workers);
+		persistStage.start(workers);
+		List<BlockingQueue<Entry>> queues = new ArrayList<BlockingQueue<Entry>>(workers);
+		for (int i = 0; i < workers; i++) {
+			BlockingQueue<Entry> parseQueue = new ArrayBlockingQueue<Entry>(queueCapacity);
+			BlockingQueue<Entry> persistQueue = new ArrayBlockingQueue<Entry>(queueCapacity);
+			queues.add(parseQueue);
+			parseStage.addQueue(parseQueue);
+			persistStage.addQueue(persistQueue);
+			start(new Parser(parseQueue, persistQueue), "rapidsmsvalidator-parse-" + i);
+			start(new Worker(persistQueue, userContext, done), "rapidsmsvalidator-replay-" + i);
+		}
+		
+		log.info("Replaying PostEncounterLogs " + fromId + " to " + toId + " with " + workers + " workers");
+		PostEncounterLogCursor cursor = new PostEncounterLogCursor(service, fromId, toId, pageSize);
+		if (filtered)
+			cursor.setFilter(MessageReplayer.SENDING_APPLICATION);
+		try {
+			Batch batch = null;
+			while (!isCancelled()) {
+				long start = System.nanoTime();
+				if (!cursor.hasNext())
+					break;
+				ReplayItem item = cursor.next();
+				fetchStage.record(1, System.nanoTime() - start);
+				if (batch == null)
+					batch = openBatch();
+				batch.add(item.getPostRequestId());
+				queues.get(partition(item)).put(new Entry(item, batch));
+				read.incrementAndGet();
+				if (batch.size == pageSize) {
+					batch.seal();
+					batch = null;
+				}
+			}
+			if (batch != null)
+				batch.seal();
+		}
+		finally {
+			cursor.close();
+			for (BlockingQueue<Entry> queue : queues)
+				queue.put(END);
+		}
+		done.await();
+		log.info("Replay of " + fromId + " to " + toId + " finished: " + read.get() + " read, "
+		        + getCount(ReplayOutcome.PROCESSED) + " processed, " + getCount(ReplayOutcome.FAILED) + " failed ("
+		        + fetchStage + "; " + parseStage + "; " + persistStage + ")");
+		if (error != null)
+			throw new APIException("Replay of PostEncounterLogs " + fromId + " to " + toId + " stopped", error);
+	}
+	
+	/**
+	 * @return the fetch, parse and persist stages
+	 */
+	public List<StageStats> getStages() {
+		return Arrays.asList(fetchStage, parseStage, persistStage);
+	}
+	
+	/**
+	 * @return the number of logs read from the database so far
+	 */
+	public long getRead() {
+		return read.get();
+	}
+	
+	/**
+	 * @return the number of logs replayed so far with the given outcome
+	 */
+	public long getCount(ReplayOutcome outcome) {
+		return outcomes[outcome.ordinal()].get();
+	}
+	
+	/**
+	 * @return the postRequestIds of the logs that failed so far
+	 */
+	public List<Integer> getFailedIds() {
+		synchronized (failedIds) {
+			return new ArrayList<Integer>(failedIds);
+		}
+	}
+	
+	private void start(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private Batch openBatch() {
+		Batch batch = new Batch();
+		synchronized (pending) {
+			pending.add(batch);
+		}
+		return batch;
+	}
+	
+	/**
+	 * Reports every leading batch that is done as committed.
+	 */
+	private void advance() {
+		int lastId = -1;
+		synchronized (pending) {
+			while (!pending.isEmpty() && pending.getFirst().isDone())
+				lastId = pending.removeFirst().lastId;
+			if (lastId >= 0 && monitor != null) {
+				try {
+					monitor.committed(lastId);
+				}
+				catch (RuntimeException e) {
+					log.error("Unable to record replay checkpoint " + lastId, e);
+				}
+			}
+		}
+	}
+	
+	private int partition(ReplayItem item) {
+		if (workers == 1)
+			return 0;
+		String patientId = Hl7RawScanner.getField(item.getHl7data(), "PID", 3);
+		int hash = patientId != null ? patientId.hashCode() : item.getPostRequestId();
+		return (hash & Integer.MAX_VALUE) % workers;
+	}
+	
+	/**
+	 * The logs of one page, counted down as they are replayed. The count starts at one for the
+	 * batch itself, which is released by {@link #seal()} once the whole page is dispatched.
+	 */
+	private class Batch {
+		
+		private final AtomicInteger remaining = new AtomicInteger(1);
+		
+		private int size;
+		
+		private int lastId;
+		
+		void add(int postRequestId) {
+			remaining.incrementAndGet();
+			size++;
+			lastId = postRequestId;
+		}
+		
+		void seal() {
+			release();
+		}
+		
+		void release() {
+			if (remaining.decrementAndGet() == 0)
+				advance();
+		}
+		
+		boolean isDone() {
+			return remaining.get() == 0;
+		}
+	}
+	
+	private static class Entry {
+		
+		private final ReplayItem item;
+		
+		private final Batch batch;
+		
+		// set by the parse stage
+		private ParsedItem parsed;
+		
+		// set by the persist stage once the outcome is counted
+		private boolean reported;
+		
+		Entry(ReplayItem item, Batch batch) {
+			this.item = item;
+			this.batch = batch;
+		}
+	}
+	
+	private class Parser implements Runnable {
+		
+		private final BlockingQueue<Entry> in;
+		
+		private final BlockingQueue<Entry> out;
+		
+		Parser(BlockingQueue<Entry> in, BlockingQueue<Entry> out) {
+			this.in = in;
+			this.out = out;
+		}
+		
+		public void run() {
+			try {
+				Entry entry;
+				while ((entry = in.take()) != END) {
+					// dropped entries are never released, so the checkpoint stays before them
+					if (isCancelled())
+						continue;
+					
+					long start = System.nanoTime();
+					try {
+						entry.parsed = MessageReplayer.parse(entry.item);
+					}
+					catch (RuntimeException e) {
+						log.error("Unable to parse PostEncounterLog " + entry.item.getPostRequestId(), e);
+						entry.parsed = new ParsedItem(entry.item, null, ReplayOutcome.FAILED);
+					}
+					parseStage.record(1, System.nanoTime() - start);
+					out.put(entry);
+				}
+			}
+			catch (InterruptedException e) {
+				cancelled = true;
+			}
+			finally {
+				// the worker must always see the end, even if this thread was interrupted
+				boolean interrupted = Thread.interrupted();
+				while (true) {
+					try {
+						out.put(END);
+						break;
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private class Worker implements Runnable {
+		
+		private final BlockingQueue<Entry> queue;
+		
+		private final UserContext userContext;
+		
+		private final CountDownLatch done;
+		
+		private MessageReplayer replayer;
+		
+		private boolean sessionOpen;
+		
+		Worker(BlockingQueue<Entry> queue, UserContext userContext, CountDownLatch done) {
+			this.queue = queue;
+			this.userContext = userContext;
+			this.done = done;
+		}
+		
+		public void run() {
+			try {
+				List<Entry> chunk = new ArrayList<Entry>(chunkSize);
+				boolean end = false;
+				while (!end) {
+					// wait for the first entry of a chunk, then take what is already queued
+					Entry entry = queue.take();
+					while (true) {
+						if (entry == END) {
+							end = true;
+							break;
+						}
+						// skipped entries are never released, so the checkpoint stays before them
+						if (!isCancelled())
+							chunk.add(entry);
+						if (chunk.size() == chunkSize || (entry = queue.poll()) == null)
+							break;
+					}
+					if (!chunk.isEmpty())
+						process(chunk);
+					chunk.clear();
+				}
+			}
+			catch (InterruptedException e) {
+				cancelled = true;
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				try {
+					if (sessionOpen)
+						Context.closeSession();
+				}
+				catch (RuntimeException e) {
+					log.warn("Unable to close the session of " + Thread.currentThread().getName(), e);
+				}
+				done.countDown();
+			}
+		}
+		
+		/**
+		 * Replays or validates a chunk. Anything that escapes the handling of single logs stops the
+		 * replay: the logs of the chunk that are not reported yet count as failed without being
+		 * released, and the worker skips what is left in its queue until the end.
+		 */
+		private void process(List<Entry> chunk) {
+			try {
+				if (replayer == null)
+					replayer = openSession();
+				if (validator != null)
+					validate(chunk);
+				else
+					replay(chunk);
+			}
+			catch (RuntimeException e) {
+				log.error("Unable to finish PostEncounterLogs " + chunk.get(0).item.getPostRequestId() + " to "
+				        + chunk.get(chunk.size() - 1).item.getPostRequestId() + ", stopping the replay", e);
+				if (error == null)
+					error = e;
+				cancelled = true;
+				for (Entry entry : chunk) {
+					if (entry.reported)
+						continue;
+					entry.reported = true;
+					outcomes[ReplayOutcome.FAILED.ordinal()].incrementAndGet();
+					failedIds.add(entry.item.getPostRequestId());
+					if (monitor != null) {
+						try {
+							monitor.replayed(entry.item, ReplayOutcome.FAILED);
+						}
+						catch (RuntimeException reportError) {
+							log.warn("Unable to report PostEncounterLog " + entry.item.getPostRequestId(), reportError);
+						}
+					}
+				}
+			}
+		}
+		
+		private void replay(List<Entry> chunk) {
+			long start = System.nanoTime();
+			List<ParsedItem> items = new ArrayList<ParsedItem>(chunk.size());
+			for (Entry entry : chunk) {
+				if (entry.parsed.getMessage() != null)
+					items.add(entry.parsed);
+			}
+			Map<ParsedItem, ReplayOutcome> results = replayMessages(items);
+			persistStage.record(chunk.size(), System.nanoTime() - start);
+			
+			for (Entry entry : chunk) {
+				ParsedItem parsed = entry.parsed;
+				report(entry, parsed.getMessage() != null ? results.get(parsed) : parsed.getOutcome(), null);
+			}
+		}
+		
+		/**
+		 * Replays parsed notifications in one transaction. If the handler fails on some of them they
+		 * count as failed, and the rest is replayed again without them in a new transaction.
+		 * 
+		 * @return the outcome of each item
+		 */
+		private Map<ParsedItem, ReplayOutcome> replayMessages(List<ParsedItem> items) {
+			Map<ParsedItem, ReplayOutcome> results = new HashMap<ParsedItem, ReplayOutcome>();
+			List<ParsedItem> remaining = new ArrayList<ParsedItem>(items);
+			while (!remaining.isEmpty()) {
+				try {
+					List<ReplayOutcome> outcomes = service.replay(remaining, replayer);
+					for (int i = 0; i < remaining.size(); i++)
+						results.put(remaining.get(i), outcomes.get(i));
+					Context.clearSession();
+					break;
+				}
+				catch (ReplayFailedException e) {
+					// the handler already logged why
+					log.warn("Rolled back PostEncounterLogs " + remaining.get(0).getItem().getPostRequestId() + " to "
+					        + remaining.get(remaining.size() - 1).getItem().getPostRequestId()
+					        + ", replaying them again without the failed ones: " + e.getMessage());
+					resetSession();
+					for (ParsedItem failed : e.getFailedItems()) {
+						results.put(failed, ReplayOutcome.FAILED);
+						remaining.remove(failed);
+					}
+				}
+				catch (RuntimeException e) {
+					log.warn("Rolled back PostEncounterLogs " + remaining.get(0).getItem().getPostRequestId() + " to "
+					        + remaining.get(remaining.size() - 1).getItem().getPostRequestId()
+					        + ", replaying them one by one", e);
+					resetSession();
+					for (ParsedItem item : remaining)
+						results.put(item, replayAlone(item));
+					break;
+				}
+			}
+			return results;
+		}
+		
+		private void validate(List<Entry> chunk) {
+			long start = System.nanoTime();
+			List<ParsedItem> items = new ArrayList<ParsedItem>(chunk.size());
+			for (Entry entry : chunk)
+				items.add(entry.parsed);
+			
+			List<ValidationResult> results;
+			try {
+				results = service.validate(items, validator);
+			}
+			catch (RuntimeException e) {
+				log.error("Unable to validate PostEncounterLogs " + chunk.get(0).item.getPostRequestId() + " to "
+				        + chunk.get(chunk.size() - 1).item.getPostRequestId(), e);
+				results = new ArrayList<ValidationResult>(items.size());
+				for (Entry entry : chunk)
+					results.add(new ValidationResult(entry.item, ReplayOutcome.FAILED));
+			}
+			Context.clearSession();
+			persistStage.record(chunk.size(), System.nanoTime() - start);
+			
+			for (int i = 0; i < chunk.size(); i++)
+				report(chunk.get(i), results.get(i).getOutcome(), results.get(i));
+		}
+		
+		/**
+		 * Counts the outcome of a log, reports it to the monitor and releases it from its batch.
+		 * 
+		 * @param result the validation result, or null when replaying
+		 */
+		private void report(Entry entry, ReplayOutcome outcome, ValidationResult result) {
+			entry.reported = true;
+			outcomes[outcome.ordinal()].incrementAndGet();
+			count(entry.item, outcome);
+			if (outcome == ReplayOutcome.FAILED)
+				failedIds.add(entry.item.getPostRequestId());
+			if (isReported(outcome)) {
+				monitor.replayed(entry.item, outcome);
+				if (result != null)
+					monitor.validated(result);
+			}
+			entry.batch.release();
+		}
+		
+		/**
+		 * Counts a log in {@link ProcessingMetrics} by the raw PV1-4, which also covers logs that
+		 * were never parsed.
+		 */
+		private void count(ReplayItem item, ReplayOutcome outcome) {
+			ProcessingMetrics metrics = ProcessingMetrics.getInstance();
+			if (metrics.isEnabled())
+				metrics.count(Hl7RawScanner.getField(item.getHl7data(), "PV1", 4), outcome);
+		}
+		
+		private ReplayOutcome replayAlone(ParsedItem item) {
+			try {
+				ReplayOutcome outcome = service.replay(Collections.singletonList(item), replayer).get(0);
+				Context.clearSession();
+				return outcome;
+			}
+			catch (ReplayFailedException e) {
+				resetSession();
+				return ReplayOutcome.FAILED;
+			}
+			catch (RuntimeException e) {
+				log.error("Unable to replay PostEncounterLog " + item.getItem().getPostRequestId(), e);
+				resetSession();
+				return ReplayOutcome.FAILED;
+			}
+		}
+		
+		/**
+		 * The session may be unusable after a rollback, so it is replaced.
+		 */
+		private void resetSession() {
+			replayer = null;
+			sessionOpen = false;
+			Context.closeSession();
+			replayer = openSession();
+		}
+		
+		private MessageReplayer openSession() {
+			Context.openSession();
+			sessionOpen = true;
+			Context.setUserContext(userContext);
+			return new MessageReplayer();
+		}
+	}
+}
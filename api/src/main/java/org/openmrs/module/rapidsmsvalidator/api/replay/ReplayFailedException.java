@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown when the notification handler fails on some logs of a replayed chunk, so that the chunk
+ * is rolled back. The other logs of the chunk can then be replayed again without the failed ones.
+ */
+public class ReplayFailedException extends APIException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final List<ParsedItem> failedItems;
+	
+	public ReplayFailedException(List<ParsedItem> failedItems) {
+		super("Unable to replay PostEncounterLogs " + getPostRequestIds(failedItems));
+		this.failedItems = failedItems;
+	}
+	
+	/**
+	 * @return the logs the handler failed on, in the order they were replayed
+	 */
+	public List<ParsedItem> getFailedItems() {
+		return failedItems;
+	}
+	
+	private static List<Integer> getPostRequestIds(List<ParsedItem> items) {
+		List<Integer> ids = new ArrayList<Integer>(items.size());
+		for (ParsedItem item : items)
+			ids.add(item.getItem().getPostRequestId());
+		return ids;
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+/**
+ * The part of a PostEncounterLog the replay needs, detached from any Hibernate session so it can
+ * be handed between threads.
+ */
+public class ReplayItem {
+	
+	private final int postRequestId;
+	
+	private final String hl7data;
+	
+	public ReplayItem(int postRequestId, String hl7data) {
+		this.postRequestId = postRequestId;
+		this.hl7data = hl7data;
+	}
+	
+	public int getPostRequestId() {
+		return postRequestId;
+	}
+	
+	public String getHl7data() {
+		return hl7data;
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+/**
+ * Receives the progress of a {@link ReplayEngine} and can stop it. Called from the engine's worker
+ * threads, so implementations must be thread safe.
+ */
+public interface ReplayMonitor {
+	
+	/**
+	 * Called once for every replayed log.
+	 */
+	void replayed(ReplayItem item, ReplayOutcome outcome);
+	
+	/**
+	 * Called once for every validated log, after {@link #replayed(ReplayItem, ReplayOutcome)}, when
+	 * the engine only validates.
+	 */
+	void validated(ValidationResult result);
+	
+	/**
+	 * Called whenever every log up to and including lastId has been replayed.
+	 */
+	void committed(int lastId);
+	
+	/**
+	 * @return true to stop the replay, logs that were not replayed yet are left for a later run
+	 */
+	boolean isCancelled();
+}
@@ -0,0 +1,44 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+/**
+ * What happened to one replayed or validated PostEncounterLog.
+ */
+public enum ReplayOutcome {
+	
+	/** the message was handed to the notification handler and stored */
+	PROCESSED,
+	
+	/** the log has no hl7data */
+	NO_DATA,
+	
+	/** the message was not sent by RapidSMS */
+	NOT_RAPIDSMS,
+	
+	/** the message had already been applied and its encounter is not voided */
+	DUPLICATE,
+	
+	/** a RapidSMS message of an admission type that is not replayed */
+	IGNORED_TYPE,
+	
+	/** a dry run found that the message would be replayed without problems */
+	VALID,
+	
+	/** a dry run found that some part of the message would not resolve */
+	INVALID,
+	
+	/** parsing or processing failed */
+	FAILED
+}
@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of one stage of a {@link ReplayEngine}: how many logs wait in the queues in front
+ * of it, how many it handled and how busy its threads were. Comparing the stages shows which one
+ * limits a replay.
+ */
+public class StageStats {
+	
+	private final String name;
+	
+	private final List<Collection<?>> queues = new CopyOnWriteArrayList<Collection<?>>();
+	
+	private final AtomicLong items = new AtomicLong();
+	
+	private final AtomicLong busyNanos = new AtomicLong();
+	
+	private volatile int threads = 1;
+	
+	private volatile long started = System.currentTimeMillis();
+	
+	public StageStats(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the number of logs waiting for this stage
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Collection<?> queue : queues)
+			depth += queue.size();
+		return depth;
+	}
+	
+	/**
+	 * @return the number of logs this stage handled
+	 */
+	public long getItems() {
+		return items.get();
+	}
+	
+	/**
+	 * @return logs handled per second since the stage started
+	 */
+	public double getThroughput() {
+		long elapsed = System.currentTimeMillis() - started;
+		return elapsed <= 0 ? 0 : items.get() * 1000.0 / elapsed;
+	}
+	
+	/**
+	 * @return the share of time the threads of this stage spent working rather than waiting, between
+	 *         0 and 1
+	 */
+	public double getUtilization() {
+		long elapsed = System.currentTimeMillis() - started;
+		return elapsed <= 0 ? 0 : Math.min(1, busyNanos.get() / 1000000.0 / elapsed / threads);
+	}
+	
+	@Override
+	public String toString() {
+		return name + ": " + getItems() + " done, " + getQueueDepth() + " queued, "
+		        + Math.round(getThroughput() * 10) / 10.0 + "/s, " + Math.round(getUtilization() * 100) + "% busy";
+	}
+	
+	/**
+	 * Restarts the clock of this stage, which now runs on the given number of threads.
+	 */
+	void start(int threads) {
+		this.threads = threads;
+		this.started = System.currentTimeMillis();
+	}
+	
+	void addQueue(Collection<?> queue) {
+		queues.add(queue);
+	}
+	
+	void record(int count, long nanos) {
+		items.addAndGet(count);
+		busyNanos.addAndGet(nanos);
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+/**
+ * What a dry run checks for every message, see {@link MessageValidator}.
+ */
+public enum ValidationCheck {
+	
+	/** the PID-3 ECID matches exactly one patient */
+	PATIENT,
+	
+	/** the PV1-7 EPID matches an existing provider, otherwise a replay would create one */
+	PROVIDER,
+	
+	/** the MSH-4 facility matches a location */
+	LOCATION,
+	
+	/** the OBR-7 observation date/time is present and valid */
+	ENCOUNTER_DATE,
+	
+	/** the OBX-3 identifiers and coded OBX-5 values match concepts */
+	CONCEPT,
+	
+	/** the OBX-5 datatypes are supported, fit the datatype of their concept and their values can be read */
+	DATATYPE
+}
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of validating one log: which checks failed and why, or why the log was not checked.
+ */
+public class ValidationResult {
+	
+	private final ReplayItem item;
+	
+	private final ReplayOutcome skipped;
+	
+	private final Set<ValidationCheck> failed = EnumSet.noneOf(ValidationCheck.class);
+	
+	private final List<String> problems = new ArrayList<String>();
+	
+	ValidationResult(ReplayItem item, ReplayOutcome skipped) {
+		this.item = item;
+		this.skipped = skipped;
+	}
+	
+	/**
+	 * @param problem why the message could not be checked
+	 */
+	ValidationResult(ReplayItem item, ReplayOutcome skipped, String problem) {
+		this(item, skipped);
+		problems.add(problem);
+	}
+	
+	public ReplayItem getItem() {
+		return item;
+	}
+	
+	/**
+	 * @return {@link ReplayOutcome#VALID} or {@link ReplayOutcome#INVALID} for a checked message,
+	 *         otherwise why it was not checked
+	 */
+	public ReplayOutcome getOutcome() {
+		if (skipped != null)
+			return skipped;
+		return problems.isEmpty() ? ReplayOutcome.VALID : ReplayOutcome.INVALID;
+	}
+	
+	public Set<ValidationCheck> getFailedChecks() {
+		return Collections.unmodifiableSet(failed);
+	}
+	
+	public List<String> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+	
+	/**
+	 * @return the problems in one line, or null if there are none
+	 */
+	public String getDetail() {
+		if (problems.isEmpty())
+			return null;
+		StringBuilder detail = new StringBuilder();
+		for (String problem : problems) {
+			if (detail.length() > 0)
+				detail.append("; ");
+			detail.append(problem);
+		}
+		return detail.toString();
+	}
+	
+	void fail(ValidationCheck check, String problem) {
+		failed.add(check);
+		problems.add(check + ": " + problem);
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+
+/**
+ * Caches the concept lookups done for OBX identifiers and coded values, shared by all
+ * {@link RsmsNotificationHandler} instances.
+ * <p>
+ * Only concept ids are cached. The concept itself is loaded with
+ * {@link org.openmrs.api.ConceptService#getConcept(Integer)}, which is served from the session or the
+ * second level cache, so cached concepts are never detached from the session that uses them. Unknown
+ * codes and names are cached too. The cache is cleared whenever a concept is changed (see
+ * {@link org.openmrs.module.rapidsmsvalidator.advice.ConceptServiceAdvice}).
+ */
+public class ConceptCache {
+	
+	public static final int DEFAULT_MAX_SIZE = 2000;
+	
+	public static final long DEFAULT_TTL = 60 * 60 * 1000L;
+	
+	private static final Integer NOT_FOUND = -1;
+	
+	private static final ConceptCache INSTANCE = new ConceptCache(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+	
+	private final ExpiringLruCache<String, Integer> byMapping;
+	
+	private final ExpiringLruCache<String, Integer> byName;
+	
+	public ConceptCache(int maxSize, long ttl) {
+		byMapping = new ExpiringLruCache<String, Integer>(maxSize, ttl);
+		byName = new ExpiringLruCache<String, Integer>(maxSize, ttl);
+	}
+	
+	public static ConceptCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @see org.openmrs.api.ConceptService#getConceptByMapping(String, String)
+	 */
+	public Concept getConceptByMapping(String code, String sourceName) {
+		String key = sourceName + "\u0000" + code;
+		Integer conceptId = byMapping.get(key);
+		if (conceptId == null) {
+			Concept concept = Context.getConceptService().getConceptByMapping(code, sourceName);
+			byMapping.put(key, concept == null ? NOT_FOUND : concept.getConceptId());
+			return concept;
+		}
+		return load(conceptId);
+	}
+	
+	/**
+	 * @see org.openmrs.api.ConceptService#getConceptByName(String)
+	 */
+	public Concept getConceptByName(String name) {
+		if (name == null)
+			return null;
+		Integer conceptId = byName.get(name);
+		if (conceptId == null) {
+			Concept concept = Context.getConceptService().getConceptByName(name);
+			byName.put(name, concept == null ? NOT_FOUND : concept.getConceptId());
+			return concept;
+		}
+		return load(conceptId);
+	}
+	
+	/**
+	 * Drops every cached lookup.
+	 */
+	public void invalidate() {
+		byMapping.clear();
+		byName.clear();
+	}
+	
+	public ExpiringLruCache<String, Integer> getMappingCache() {
+		return byMapping;
+	}
+	
+	public ExpiringLruCache<String, Integer> getNameCache() {
+		return byName;
+	}
+	
+	private Concept load(Integer conceptId) {
+		if (NOT_FOUND.equals(conceptId))
+			return null;
+		return Context.getConceptService().getConcept(conceptId);
+	}
+}
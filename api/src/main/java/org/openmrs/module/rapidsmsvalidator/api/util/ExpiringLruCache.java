@@ -0,0 +1,134 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread safe LRU cache whose entries also expire after a fixed time to live. Keeps hit and
+ * miss counters so callers can report hit ratios. Null values are not supported, callers that want
+ * negative caching store a sentinel.
+ */
+public class ExpiringLruCache<K, V> {
+	
+	private final int maxSize;
+	
+	private final long ttl;
+	
+	private final LinkedHashMap<K, Entry<V>> entries;
+	
+	private long hits;
+	
+	private long misses;
+	
+	/**
+	 * @param maxSize maximum number of entries, the least recently used entry is dropped beyond it
+	 * @param ttl time to live of an entry in milliseconds, 0 or less never expires
+	 */
+	public ExpiringLruCache(final int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * @return the cached value or null if it is absent or expired
+	 */
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+			entries.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+	
+	/**
+	 * Like {@link #get(Object)} but without counting a hit or a miss.
+	 */
+	public synchronized boolean contains(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+			entries.remove(key);
+			entry = null;
+		}
+		return entry != null;
+	}
+	
+	public synchronized void put(K key, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("null values can not be cached");
+		entries.put(key, new Entry<V>(value));
+	}
+	
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+	
+	/**
+	 * Drops all entries, the counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return hits / (hits + misses), 0 before the first lookup
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+	
+	private static class Entry<V> {
+		
+		private final V value;
+		
+		private final long created = System.currentTimeMillis();
+		
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Converts HL7 DTM, DT and TM values to epoch milliseconds by reading the digits in place, without
+ * a Calendar or any substrings.
+ * <p>
+ * A DTM is YYYY[MM[DD[HH[MM[SS[.S[S[S[S]]]]]]]]][+/-ZZZZ]. Missing parts default to the start of
+ * the period, fractions of a second are kept to the millisecond, and a value without an offset is
+ * read in the zone given to the constructor. Like a lenient Calendar, fields out of range roll
+ * over, e.g. February 30th is March 1st or 2nd. Dates are proleptic Gregorian, so they agree with
+ * Calendar from 1583 on.
+ */
+public class Hl7DateParser {
+	
+	private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+	
+	private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+	
+	private static final Hl7DateParser INSTANCE = new Hl7DateParser(TimeZone.getDefault());
+	
+	private final TimeZone zone;
+	
+	private final long timeBase;
+	
+	/**
+	 * @param zone the zone of values without an offset
+	 */
+	public Hl7DateParser(TimeZone zone) {
+		this.zone = (TimeZone) zone.clone();
+		
+		// TM values have always been stored on the day a lenient Calendar makes of year, month and
+		// day 0, keep them there
+		Calendar calendar = Calendar.getInstance(this.zone);
+		calendar.clear();
+		calendar.set(0, -1, 0, 0, 0, 0);
+		long millis = calendar.getTimeInMillis();
+		timeBase = millis + this.zone.getOffset(millis);
+	}
+	
+	/**
+	 * @return the parser for the default zone when the module was loaded
+	 */
+	public static Hl7DateParser getInstance() {
+		return INSTANCE;
+	}
+	
+	public TimeZone getZone() {
+		return (TimeZone) zone.clone();
+	}
+	
+	/**
+	 * Parses a DTM or DT value.
+	 * 
+	 * @return epoch milliseconds
+	 * @throws IllegalArgumentException if the value is not a DTM
+	 */
+	public long parse(CharSequence value) {
+		int zoneAt = findOffset(value);
+		int dateEnd = Math.min(zoneAt, 8);
+		if (dateEnd < 4 || dateEnd % 2 != 0)
+			throw invalid(value);
+		
+		int year = digits(value, 0, 4);
+		int month = dateEnd >= 6 ? digits(value, 4, 6) : 1;
+		int day = dateEnd == 8 ? digits(value, 6, 8) : 1;
+		long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+		if (zoneAt > 8)
+			local += timeOfDay(value, 8, zoneAt);
+		return toUtc(value, local, zoneAt);
+	}
+	
+	/**
+	 * Parses a TM value, HH[MM[SS[.S[S[S[S]]]]]][+/-ZZZZ], on the day TM obs have always been stored
+	 * on.
+	 * 
+	 * @return epoch milliseconds
+	 * @throws IllegalArgumentException if the value is not a TM
+	 */
+	public long parseTime(CharSequence value) {
+		int zoneAt = findOffset(value);
+		if (zoneAt == 0)
+			throw invalid(value);
+		return toUtc(value, timeBase + timeOfDay(value, 0, zoneAt), zoneAt);
+	}
+	
+	/**
+	 * @param month 1 to 12, other values roll over into the previous or next years
+	 * @return the days since 1970-01-01 of a proleptic Gregorian date
+	 */
+	static long daysFromCivil(int year, int month, int day) {
+		int m = month - 1;
+		int years = m >= 0 ? m / 12 : (m - 11) / 12;
+		year += years;
+		month = m - years * 12 + 1;
+		
+		if (month <= 2)
+			year--;
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468 + day - 1;
+	}
+	
+	private long timeOfDay(CharSequence value, int begin, int end) {
+		int length = end - begin;
+		if (length > 6) {
+			if (length == 7 || length > 11 || value.charAt(begin + 6) != '.')
+				throw invalid(value);
+		} else if (length % 2 != 0) {
+			throw invalid(value);
+		}
+		
+		long millis = 0;
+		if (length >= 2)
+			millis += digits(value, begin, begin + 2) * MILLIS_PER_HOUR;
+		if (length >= 4)
+			millis += digits(value, begin + 2, begin + 4) * 60000L;
+		if (length >= 6)
+			millis += digits(value, begin + 4, begin + 6) * 1000L;
+		if (length > 7) {
+			int fractionEnd = Math.min(end, begin + 10);
+			int fraction = digits(value, begin + 7, fractionEnd);
+			for (int i = fractionEnd - begin - 7; i < 3; i++)
+				fraction *= 10;
+			millis += fraction;
+			if (end > fractionEnd)
+				digits(value, fractionEnd, end);
+		}
+		return millis;
+	}
+	
+	private long toUtc(CharSequence value, long local, int zoneAt) {
+		if (zoneAt < value.length()) {
+			if (value.length() - zoneAt != 5)
+				throw invalid(value);
+			long offset = digits(value, zoneAt + 1, zoneAt + 3) * MILLIS_PER_HOUR + digits(value, zoneAt + 3, zoneAt + 5)
+			        * 60000L;
+			return value.charAt(zoneAt) == '-' ? local + offset : local - offset;
+		}
+		
+		// the offset in effect at the local time, the second lookup only differs next to a transition
+		int offset = zone.getOffset(local - zone.getRawOffset());
+		int adjusted = zone.getOffset(local - offset);
+		return local - adjusted;
+	}
+	
+	private static int findOffset(CharSequence value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '+' || c == '-')
+				return i;
+		}
+		return length;
+	}
+	
+	private static int digits(CharSequence value, int begin, int end) {
+		int result = 0;
+		for (int i = begin; i < end; i++) {
+			int digit = value.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw invalid(value);
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+	
+	private static IllegalArgumentException invalid(CharSequence value) {
+		return new IllegalArgumentException("Invalid HL7 date/time '" + value + "'");
+	}
+}
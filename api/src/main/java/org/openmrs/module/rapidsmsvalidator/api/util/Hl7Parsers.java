@@ -0,0 +1,102 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
+import ca.uhn.hl7v2.parser.GenericParser;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
+import ca.uhn.hl7v2.parser.PipeParser;
+
+/**
+ * The HL7 parsers of the module. HAPI parsers are not thread safe, so every thread gets its own
+ * instances, but all of them share one {@link ModelClassFactory} and with it the model classes it
+ * has already looked up.
+ * <p>
+ * HAPI loads the classes of a message structure the first time it parses one, which takes seconds
+ * for ORU_R01. {@link #warmUp()} parses and encodes a sample RapidSMS notification so that this
+ * happens when the module starts rather than on the first replayed message.
+ */
+public class Hl7Parsers {
+	
+	/**
+	 * A v2.5 ORU_R01 shaped like the RapidSMS notifications, with the segments and data types the
+	 * handler reads.
+	 */
+	static final String SAMPLE_MESSAGE = "MSH|^~\\&|RAPIDSMS|417|SHR|RWANDA|20120101120000||ORU^R01^ORU_R01|WARMUP|P|2.5\r"
+	        + "PID|||1234567890^^^^ECID||Doe^Jane\r" + "PV1|1|O||RISK|||0987654321^Smith^John\r"
+	        + "OBR|1|||Notification^Notification|||20120101120000\r"
+	        + "OBX|1|NM|5089^Weight^RWCS||60|kg|||||F|||20120101120000\r"
+	        + "OBX|2|CE|1065^Yes^RWCS||1065^Yes^RWCS||||||F|||20120101120000\r"
+	        + "OBX|3|DT|5596^Expected delivery date^RWCS||20120601||||||F|||20120101120000\r"
+	        + "OBX|4|TS|160259^Date of birth^RWCS||20120101120000||||||F|||20120101120000\r"
+	        + "OBX|5|ST|5090^Height^RWCS||text||||||F|||20120101120000\r";
+	
+	private static final Log log = LogFactory.getLog(Hl7Parsers.class);
+	
+	private static final ModelClassFactory MODEL_CLASS_FACTORY = new DefaultModelClassFactory();
+	
+	private static final ThreadLocal<GenericParser> PARSER = new ThreadLocal<GenericParser>() {
+		
+		@Override
+		protected GenericParser initialValue() {
+			return new GenericParser(MODEL_CLASS_FACTORY);
+		}
+	};
+	
+	private static final ThreadLocal<PipeParser> PIPE_PARSER = new ThreadLocal<PipeParser>() {
+		
+		@Override
+		protected PipeParser initialValue() {
+			return new PipeParser(MODEL_CLASS_FACTORY);
+		}
+	};
+	
+	private Hl7Parsers() {
+	}
+	
+	/**
+	 * @return the parser of the calling thread, which must not be handed to other threads
+	 */
+	public static GenericParser getParser() {
+		return PARSER.get();
+	}
+	
+	/**
+	 * @return the ER7 parser of the calling thread, which must not be handed to other threads
+	 */
+	public static PipeParser getPipeParser() {
+		return PIPE_PARSER.get();
+	}
+	
+	/**
+	 * Loads the HAPI model classes of RapidSMS notifications. Failures are only logged, the classes
+	 * are then loaded by the first replayed message instead.
+	 */
+	public static void warmUp() {
+		long start = System.currentTimeMillis();
+		try {
+			Message message = getParser().parse(SAMPLE_MESSAGE);
+			getPipeParser().encode(message);
+			log.info("HL7 parser warmed up in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		catch (HL7Exception e) {
+			log.warn("Unable to warm up the HL7 parser", e);
+		}
+	}
+}
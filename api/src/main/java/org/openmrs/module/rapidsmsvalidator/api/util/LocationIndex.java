@@ -0,0 +1,186 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * In-memory FOSA id to {@link Location} index used to resolve the MSH sending facility. Locations
+ * carry their FOSA id in the description as "&lt;anything&gt;: &lt;fosaid&gt;".
+ * <p>
+ * Only location ids are kept, never the entities of the session that built the index, so every
+ * caller gets a reference in its own session.
+ * <p>
+ * The index is built lazily from {@link org.openmrs.api.LocationService#getAllLocations()}, rebuilt
+ * once it is older than the ttl, and dropped whenever a location is saved, retired or purged (see
+ * {@link org.openmrs.module.rapidsmsvalidator.advice.LocationServiceAdvice}). An index that was
+ * being built while it was dropped is used for the lookup that built it, but not kept.
+ */
+public class LocationIndex {
+	
+	public static final long DEFAULT_TTL = 15 * 60 * 1000L;
+	
+	private static final LocationIndex INSTANCE = new LocationIndex();
+	
+	private static final Log log = LogFactory.getLog(LocationIndex.class);
+	
+	private volatile Snapshot snapshot;
+	
+	private volatile long ttl = DEFAULT_TTL;
+	
+	private final Object publishLock = new Object();
+	
+	private int generation;
+	
+	public static LocationIndex getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param fosaId the sending facility id from MSH-4
+	 * @return a reference to the location with that FOSA id in the current session, or null
+	 */
+	public Location getLocation(String fosaId) {
+		Integer locationId = getLocationId(fosaId);
+		if (locationId == null)
+			return null;
+		return Context.getService(RapidSMSValidatorService.class).getLocationReference(locationId);
+	}
+	
+	/**
+	 * @param fosaId the sending facility id from MSH-4
+	 * @return the id of the location with that FOSA id, or null
+	 */
+	public Integer getLocationId(String fosaId) {
+		if (fosaId == null)
+			return null;
+		return currentSnapshot().locationIds.get(fosaId);
+	}
+	
+	/**
+	 * @return FOSA ids that were carried by more than one location when the index was last built
+	 */
+	public Set<String> getAmbiguousFosaIds() {
+		return currentSnapshot().ambiguous;
+	}
+	
+	/**
+	 * Drops the index, the next lookup rebuilds it.
+	 */
+	public void invalidate() {
+		synchronized (publishLock) {
+			generation++;
+			snapshot = null;
+		}
+	}
+	
+	/**
+	 * Replaces the index with one built from the given locations.
+	 */
+	public synchronized void rebuild(Collection<Location> locations) {
+		Snapshot built = build(locations);
+		synchronized (publishLock) {
+			snapshot = built;
+		}
+	}
+	
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+	
+	/**
+	 * Extracts the FOSA id from a location description, i.e. the trimmed text after the first ':'.
+	 * 
+	 * @return the FOSA id or null if the description does not carry one
+	 */
+	public static String getFosaId(Location location) {
+		String description = location.getDescription();
+		if (description == null)
+			return null;
+		int separator = description.indexOf(':');
+		if (separator < 0)
+			return null;
+		return description.substring(separator + 1).trim();
+	}
+	
+	private Snapshot currentSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null || current.isOlderThan(ttl)) {
+			synchronized (this) {
+				current = snapshot;
+				if (current == null || current.isOlderThan(ttl)) {
+					int builtGeneration;
+					synchronized (publishLock) {
+						builtGeneration = generation;
+					}
+					current = build(Context.getLocationService().getAllLocations());
+					synchronized (publishLock) {
+						// a location changed while it was read, the next lookup builds again
+						if (builtGeneration == generation)
+							snapshot = current;
+					}
+				}
+			}
+		}
+		return current;
+	}
+	
+	private static Snapshot build(Collection<Location> locations) {
+		Map<String, Integer> byFosaId = new HashMap<String, Integer>(locations.size() * 2);
+		Set<String> ambiguous = new TreeSet<String>();
+		for (Location location : locations) {
+			String fosaId = getFosaId(location);
+			if (fosaId == null)
+				continue;
+			// keep the last match, as the original linear scan did, but say so
+			Integer previous = byFosaId.put(fosaId, location.getLocationId());
+			if (previous != null) {
+				ambiguous.add(fosaId);
+				log.warn("FOSA id " + fosaId + " is used by locations " + previous + " and " + location.getLocationId()
+				        + ", resolving it to " + location.getLocationId());
+			}
+		}
+		log.info("Indexed " + byFosaId.size() + " locations by FOSA id, " + ambiguous.size() + " ambiguous");
+		return new Snapshot(byFosaId, Collections.unmodifiableSet(ambiguous));
+	}
+	
+	private static class Snapshot {
+		
+		private final Map<String, Integer> locationIds;
+		
+		private final Set<String> ambiguous;
+		
+		private final long builtAt = System.currentTimeMillis();
+		
+		Snapshot(Map<String, Integer> locationIds, Set<String> ambiguous) {
+			this.locationIds = locationIds;
+			this.ambiguous = ambiguous;
+		}
+		
+		boolean isOlderThan(long ttl) {
+			return System.currentTimeMillis() - builtAt > ttl;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+/**
+ * How an OBX-5 value is stored on its obs, chosen once per {@link ObxPlan}.
+ */
+public enum ObsValueType {
+	
+	/** NM as value numeric */
+	NUMERIC,
+	
+	/** NM 0 or 1 for a boolean concept */
+	BOOLEAN,
+	
+	/** NM 0 or 1 for a coded concept, as the true or false concept */
+	CODED_BOOLEAN,
+	
+	/** CE as the mapped concept */
+	CODED,
+	
+	/** CWE as the concept with that name, or a drug */
+	CODED_WITH_NAME,
+	
+	/** DT or TS */
+	DATETIME,
+	
+	/** TM */
+	TIME,
+	
+	/** ST */
+	TEXT
+}
@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Set;
+
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * What {@link RsmsNotificationHandler} does with one kind of OBX, compiled by {@link ObxPlans}: the
+ * concept of the OBX-3 identifier, how the value is stored, and the answers of the concept.
+ * <p>
+ * Like {@link ConceptCache}, a plan keeps concept ids, not concepts, so it is never tied to the
+ * session that compiled it.
+ */
+public class ObxPlan {
+	
+	private final Integer conceptId;
+	
+	private final ObsValueType valueType;
+	
+	private final ObsValueType booleanValueType;
+	
+	private final Set<Integer> answerIds;
+	
+	private final Integer trueConceptId;
+	
+	private final Integer falseConceptId;
+	
+	ObxPlan(Integer conceptId, ObsValueType valueType, ObsValueType booleanValueType, Set<Integer> answerIds,
+	    Integer trueConceptId, Integer falseConceptId) {
+		this.conceptId = conceptId;
+		this.valueType = valueType;
+		this.booleanValueType = booleanValueType;
+		this.answerIds = answerIds;
+		this.trueConceptId = trueConceptId;
+		this.falseConceptId = falseConceptId;
+	}
+	
+	public Integer getConceptId() {
+		return conceptId;
+	}
+	
+	/**
+	 * @return the concept as a reference, read only when one of its properties is used
+	 */
+	public Concept getConcept() {
+		return Context.getService(RapidSMSValidatorService.class).getConceptReference(conceptId);
+	}
+	
+	public ObsValueType getValueType() {
+		return valueType;
+	}
+	
+	/**
+	 * @return how an NM value of 0 or 1 is stored, {@link ObsValueType#BOOLEAN},
+	 *         {@link ObsValueType#NUMERIC} or {@link ObsValueType#CODED_BOOLEAN} depending on the
+	 *         datatype of the concept, or null if the concept can not take one
+	 */
+	public ObsValueType getBooleanValueType() {
+		return booleanValueType;
+	}
+	
+	/**
+	 * @return true if the concept is coded and has this answer
+	 */
+	public boolean isAnswer(Integer answerConceptId) {
+		return answerIds.contains(answerConceptId);
+	}
+	
+	/**
+	 * @return the id of the true or false concept when the plan was compiled, only set for
+	 *         {@link ObsValueType#CODED_BOOLEAN}
+	 */
+	public Integer getBooleanConceptId(boolean value) {
+		return value ? trueConceptId : falseConceptId;
+	}
+}
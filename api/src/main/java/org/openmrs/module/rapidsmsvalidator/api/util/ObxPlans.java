@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.v25.datatype.CE;
+
+/**
+ * Compiles an {@link ObxPlan} per OBX-3 identifier and OBX-2 datatype, so that RapidSMS
+ * notifications, whose layouts are fixed, resolve each OBX with one map lookup. Plans are dropped
+ * together with the {@link ConceptCache} whenever a concept is changed. A plan compiled while that
+ * happens is returned to its caller but not kept.
+ */
+public class ObxPlans {
+	
+	/** more plans than this means the layouts are not fixed after all, start over */
+	public static final int MAX_PLANS = 2000;
+	
+	private static final ObxPlans INSTANCE = new ObxPlans();
+	
+	private final ConcurrentMap<String, ObxPlan> plans = new ConcurrentHashMap<String, ObxPlan>();
+	
+	private final Object lock = new Object();
+	
+	private int generation;
+	
+	public static ObxPlans getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param identifier OBX-3
+	 * @param hl7Datatype OBX-2
+	 * @throws HL7Exception if no concept is mapped to the identifier or the datatype is not supported
+	 */
+	public ObxPlan getPlan(CE identifier, String hl7Datatype) throws HL7Exception {
+		String code = identifier.getIdentifier().getValue();
+		String codingSystem = identifier.getNameOfCodingSystem().getValue();
+		String key = codingSystem + '\u0000' + code + '\u0000' + hl7Datatype;
+		ObxPlan plan = plans.get(key);
+		if (plan == null) {
+			int compiledGeneration;
+			synchronized (lock) {
+				compiledGeneration = generation;
+			}
+			plan = compile(code, codingSystem, hl7Datatype);
+			synchronized (lock) {
+				if (compiledGeneration == generation) {
+					if (plans.size() >= MAX_PLANS)
+						plans.clear();
+					plans.put(key, plan);
+				}
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Drops every plan, including those being compiled.
+	 */
+	public void invalidate() {
+		synchronized (lock) {
+			generation++;
+			plans.clear();
+		}
+	}
+	
+	public int size() {
+		return plans.size();
+	}
+	
+	private ObxPlan compile(String code, String codingSystem, String hl7Datatype) throws HL7Exception {
+		Concept concept = ConceptCache.getInstance().getConceptByMapping(code, codingSystem);
+		if (concept == null)
+			throw new HL7Exception("No concept is mapped to '" + code + "' in " + codingSystem);
+		
+		ObsValueType valueType = getValueType(hl7Datatype);
+		if (valueType == null)
+			throw new HL7Exception("Unsupported observation datatype '" + hl7Datatype + "'");
+		
+		ConceptDatatype datatype = concept.getDatatype();
+		ObsValueType booleanValueType = null;
+		if (datatype != null) {
+			if (datatype.isBoolean())
+				booleanValueType = ObsValueType.BOOLEAN;
+			else if (datatype.isNumeric())
+				booleanValueType = ObsValueType.NUMERIC;
+			else if (datatype.isCoded())
+				booleanValueType = ObsValueType.CODED_BOOLEAN;
+		}
+		
+		Set<Integer> answerIds = Collections.emptySet();
+		Collection<ConceptAnswer> answers = concept.getAnswers();
+		if (answers != null && !answers.isEmpty()) {
+			answerIds = new HashSet<Integer>();
+			for (ConceptAnswer answer : answers)
+				answerIds.add(answer.getAnswerConcept().getConceptId());
+		}
+		
+		Integer trueConceptId = null;
+		Integer falseConceptId = null;
+		if (booleanValueType == ObsValueType.CODED_BOOLEAN) {
+			ConceptService conceptService = Context.getConceptService();
+			Concept trueConcept = conceptService.getTrueConcept();
+			Concept falseConcept = conceptService.getFalseConcept();
+			trueConceptId = trueConcept != null ? trueConcept.getConceptId() : null;
+			falseConceptId = falseConcept != null ? falseConcept.getConceptId() : null;
+		}
+		return new ObxPlan(concept.getConceptId(), valueType, booleanValueType, answerIds, trueConceptId, falseConceptId);
+	}
+	
+	private static ObsValueType getValueType(String hl7Datatype) {
+		if ("NM".equals(hl7Datatype))
+			return ObsValueType.NUMERIC;
+		if ("CE".equals(hl7Datatype))
+			return ObsValueType.CODED;
+		if ("CWE".equals(hl7Datatype))
+			return ObsValueType.CODED_WITH_NAME;
+		if ("DT".equals(hl7Datatype) || "TS".equals(hl7Datatype))
+			return ObsValueType.DATETIME;
+		if ("TM".equals(hl7Datatype))
+			return ObsValueType.TIME;
+		if ("ST".equals(hl7Datatype))
+			return ObsValueType.TEXT;
+		return null;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * Resolves patients by their ECID identifier for all {@link RsmsNotificationHandler} instances.
+ * <p>
+ * The ECID identifier type is looked up once, and resolved identifiers are kept in a bounded cache
+ * as patient ids, like in {@link ConceptCache}. Identifiers that match no patient are cached too,
+ * with a shorter time to live, so a mother with many messages costs one search per run. Saving a
+ * patient forgets its identifiers (see
+ * {@link org.openmrs.module.rapidsmsvalidator.advice.PatientServiceAdvice}).
+ */
+public class PatientResolver {
+	
+	public static final String ECID_IDENTIFIER_TYPE = "ECID";
+	
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	
+	public static final long DEFAULT_TTL = 60 * 60 * 1000L;
+	
+	public static final long DEFAULT_NOT_FOUND_TTL = 5 * 60 * 1000L;
+	
+	private static final Integer NOT_FOUND = -1;
+	
+	private static final PatientResolver INSTANCE = new PatientResolver(DEFAULT_MAX_SIZE, DEFAULT_TTL,
+	        DEFAULT_NOT_FOUND_TTL);
+	
+	private static final Log log = LogFactory.getLog(PatientResolver.class);
+	
+	private final ExpiringLruCache<String, Integer> patientIds;
+	
+	private final ExpiringLruCache<String, Integer> unknown;
+	
+	private volatile Integer identifierTypeId;
+	
+	public PatientResolver(int maxSize, long ttl, long notFoundTtl) {
+		patientIds = new ExpiringLruCache<String, Integer>(maxSize, ttl);
+		unknown = new ExpiringLruCache<String, Integer>(maxSize, notFoundTtl);
+	}
+	
+	public static PatientResolver getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @return the only unvoided patient with this ECID, or null if there is none or more than one. A
+	 *         cached patient is returned as a reference that is not read until it is used.
+	 */
+	public Patient getPatient(String ecid) {
+		if (ecid == null)
+			return null;
+		Integer patientId = patientIds.get(ecid);
+		if (patientId != null)
+			return Context.getService(RapidSMSValidatorService.class).getPatientReference(patientId);
+		if (unknown.get(ecid) != null)
+			return null;
+		
+		Patient patient = findPatient(ecid);
+		if (patient == null)
+			unknown.put(ecid, NOT_FOUND);
+		else
+			patientIds.put(ecid, patient.getPatientId());
+		return patient;
+	}
+	
+	/**
+	 * Resolves all given ECIDs that are not cached yet with one query, so that
+	 * {@link #getPatient(String)} needs no search for them.
+	 */
+	public void prefetch(Collection<String> ecids) {
+		Set<String> missing = new HashSet<String>();
+		for (String ecid : ecids) {
+			if (ecid != null && !patientIds.contains(ecid) && !unknown.contains(ecid))
+				missing.add(ecid);
+		}
+		if (missing.isEmpty() || getIdentifierType() == null)
+			return;
+		
+		Map<String, List<Integer>> found = Context.getService(RapidSMSValidatorService.class).getPatientIdsByIdentifier(
+		    identifierTypeId, missing);
+		for (String ecid : missing) {
+			List<Integer> ids = found.get(ecid);
+			if (ids == null)
+				unknown.put(ecid, NOT_FOUND);
+			else if (ids.size() == 1)
+				patientIds.put(ecid, ids.get(0));
+			// ambiguous ECIDs are left to getPatient, which reports them
+		}
+	}
+	
+	/**
+	 * Forgets the identifiers of a patient that was changed.
+	 */
+	public void forget(Patient patient) {
+		for (PatientIdentifier identifier : patient.getIdentifiers())
+			forget(identifier.getIdentifier());
+	}
+	
+	public void forget(String identifier) {
+		if (identifier == null)
+			return;
+		patientIds.remove(identifier);
+		unknown.remove(identifier);
+	}
+	
+	/**
+	 * Drops every cached lookup and the identifier type.
+	 */
+	public void invalidate() {
+		patientIds.clear();
+		unknown.clear();
+		identifierTypeId = null;
+	}
+	
+	public ExpiringLruCache<String, Integer> getPatientCache() {
+		return patientIds;
+	}
+	
+	public ExpiringLruCache<String, Integer> getNotFoundCache() {
+		return unknown;
+	}
+	
+	private Patient findPatient(String ecid) {
+		PatientIdentifierType identifierType = getIdentifierType();
+		if (identifierType == null) {
+			log.warn("There is no " + ECID_IDENTIFIER_TYPE + " patient identifier type");
+			return null;
+		}
+		
+		List<Patient> patients = Context.getPatientService().getPatients(null, ecid,
+		    Collections.singletonList(identifierType), true);
+		if (patients.size() > 1)
+			log.warn(patients.size() + " patients have the " + ECID_IDENTIFIER_TYPE + " " + ecid);
+		return patients.size() == 1 ? patients.get(0) : null;
+	}
+	
+	private PatientIdentifierType getIdentifierType() {
+		Integer id = identifierTypeId;
+		if (id != null)
+			return Context.getPatientService().getPatientIdentifierType(id);
+		
+		PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierTypeByName(
+		    ECID_IDENTIFIER_TYPE);
+		if (identifierType != null)
+			identifierTypeId = identifierType.getPatientIdentifierTypeId();
+		return identifierType;
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Person;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rheashradapter.api.LogEncounterService;
+
+/**
+ * Resolves the provider of a message by the EPID of its attending doctor, creating the provider if
+ * there is none, for all {@link RsmsNotificationHandler} instances.
+ * <p>
+ * Resolved EPIDs are cached as person ids. Concurrent misses for the same EPID are single-flight:
+ * the first thread looks the provider up (and creates it), the others wait for its result, so a new
+ * CHW is never created twice. New providers are created in their own transaction (see
+ * {@link RapidSMSValidatorService#createProvider(String, String, String)}) and returned as
+ * references, so they can be used before the caller's transaction commits.
+ */
+public class ProviderResolver {
+	
+	public static final int DEFAULT_MAX_SIZE = 5000;
+	
+	public static final long DEFAULT_TTL = 60 * 60 * 1000L;
+	
+	private static final ProviderResolver INSTANCE = new ProviderResolver(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+	
+	private static final Log log = LogFactory.getLog(ProviderResolver.class);
+	
+	private final ExpiringLruCache<String, Integer> personIds;
+	
+	private final ConcurrentMap<String, FutureTask<Integer>> inFlight = new ConcurrentHashMap<String, FutureTask<Integer>>();
+	
+	private final AtomicLong lookups = new AtomicLong();
+	
+	private final AtomicLong created = new AtomicLong();
+	
+	private final AtomicLong joined = new AtomicLong();
+	
+	public ProviderResolver(int maxSize, long ttl) {
+		personIds = new ExpiringLruCache<String, Integer>(maxSize, ttl);
+	}
+	
+	public static ProviderResolver getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param epid the EPID of the provider, PV1-7.1
+	 * @param givenName used if the provider has to be created
+	 * @param familyName used if the provider has to be created
+	 * @return the provider, or null if epid is null
+	 */
+	public Person getProvider(final String epid, final String givenName, final String familyName) {
+		if (epid == null)
+			return null;
+		
+		Integer personId = personIds.get(epid);
+		if (personId == null) {
+			FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+				
+				public Integer call() {
+					return resolve(epid, givenName, familyName);
+				}
+			});
+			FutureTask<Integer> running = inFlight.putIfAbsent(epid, task);
+			if (running == null) {
+				try {
+					task.run();
+					personId = await(task);
+					personIds.put(epid, personId);
+				}
+				finally {
+					inFlight.remove(epid);
+				}
+			} else {
+				joined.incrementAndGet();
+				personId = await(running);
+			}
+		}
+		return getService().getPersonReference(personId);
+	}
+	
+	/**
+	 * Looks a provider up without creating it, for dry runs. Only found providers are cached.
+	 * 
+	 * @return the person id of the provider, or null if there is none
+	 */
+	public Integer findProviderId(String epid) {
+		if (epid == null)
+			return null;
+		Integer personId = personIds.get(epid);
+		if (personId == null) {
+			lookups.incrementAndGet();
+			Person person = Context.getService(LogEncounterService.class).getPersonByEPID(epid);
+			if (person == null)
+				return null;
+			personId = person.getPersonId();
+			personIds.put(epid, personId);
+		}
+		return personId;
+	}
+	
+	/**
+	 * Resolves all given EPIDs that are not cached yet with one query. EPIDs without a provider are
+	 * left to {@link #getProvider(String, String, String)}, which creates them.
+	 */
+	public void prefetch(Collection<String> epids) {
+		Set<String> missing = new HashSet<String>();
+		for (String epid : epids) {
+			if (epid != null && !personIds.contains(epid))
+				missing.add(epid);
+		}
+		if (missing.isEmpty())
+			return;
+		
+		lookups.incrementAndGet();
+		int attributeTypeId = RsmsMetadata.getInstance().getEpidAttributeTypeId();
+		Map<String, List<Integer>> found = getService().getPersonIdsByAttribute(attributeTypeId, missing);
+		for (Map.Entry<String, List<Integer>> entry : found.entrySet()) {
+			if (entry.getValue().size() > 1)
+				log.warn(entry.getValue().size() + " persons have the EPID " + entry.getKey() + ", using the first");
+			personIds.put(entry.getKey(), entry.getValue().get(0));
+		}
+	}
+	
+	/**
+	 * @return the number of providers looked up in the database
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+	
+	/**
+	 * @return the number of providers created
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+	
+	/**
+	 * @return the number of misses that waited for another thread's lookup of the same EPID
+	 */
+	public long getJoined() {
+		return joined.get();
+	}
+	
+	public ExpiringLruCache<String, Integer> getCache() {
+		return personIds;
+	}
+	
+	private Integer resolve(String epid, String givenName, String familyName) {
+		Integer personId = findProviderId(epid);
+		if (personId != null)
+			return personId;
+		
+		log.info("EPID " + epid + " does not match any provider, a new provider will be created");
+		created.incrementAndGet();
+		return getService().createProvider(epid, givenName, familyName);
+	}
+	
+	private static Integer await(FutureTask<Integer> task) {
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted while resolving a provider", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new APIException("Unable to resolve a provider", e.getCause());
+		}
+	}
+	
+	private static RapidSMSValidatorService getService() {
+		return Context.getService(RapidSMSValidatorService.class);
+	}
+}
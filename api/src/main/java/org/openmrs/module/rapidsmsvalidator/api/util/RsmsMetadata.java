@@ -0,0 +1,174 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.EncounterType;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+
+/**
+ * Registry of the encounter types and person attribute types the notification handler needs. The
+ * ids are resolved once by {@link #refresh()} (called when the module starts) and kept in an
+ * immutable snapshot, so messages no longer look metadata up by name.
+ * <p>
+ * Missing metadata is created on first use. Creation is serialized and re-checked under a lock and
+ * runs in its own committed transaction (see
+ * {@link RapidSMSValidatorService#createEncounterType(String, String)}), so the id published to the
+ * snapshot stays valid when the caller's replay chunk rolls back, and other workers only ever see
+ * committed rows. The types are returned as references that are not read, because a transaction
+ * that started before the creation may not see the new row yet.
+ */
+public class RsmsMetadata {
+	
+	public static final String EPID_ATTRIBUTE_TYPE = "EPID";
+	
+	public static final String ROLE_ATTRIBUTE_TYPE = "Role";
+	
+	private static final Map<String, String> ENCOUNTER_TYPE_NAMES;
+	
+	static {
+		Map<String, String> names = new HashMap<String, String>();
+		names.put("BIR", "RapidSMS Notification BIRTH");
+		names.put("RISK", "RapidSMS Notification RISK");
+		names.put("MAT", "RapidSMS Notification Maternal Death");
+		ENCOUNTER_TYPE_NAMES = Collections.unmodifiableMap(names);
+	}
+	
+	private static final Map<String, String> ATTRIBUTE_TYPE_DESCRIPTIONS;
+	
+	static {
+		Map<String, String> descriptions = new HashMap<String, String>();
+		descriptions.put(EPID_ATTRIBUTE_TYPE, "Stores the EPID of the Provider");
+		descriptions.put(ROLE_ATTRIBUTE_TYPE, "Stores the Role of the Person object");
+		ATTRIBUTE_TYPE_DESCRIPTIONS = Collections.unmodifiableMap(descriptions);
+	}
+	
+	private static final RsmsMetadata INSTANCE = new RsmsMetadata();
+	
+	private static final Log log = LogFactory.getLog(RsmsMetadata.class);
+	
+	private volatile Map<String, Integer> encounterTypeIds = Collections.emptyMap();
+	
+	private volatile Map<String, Integer> attributeTypeIds = Collections.emptyMap();
+	
+	private final Object lock = new Object();
+	
+	public static RsmsMetadata getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param admissionType the PV1-4 admission type, e.g. BIR, RISK or MAT
+	 * @return the name of the encounter type used for that admission type
+	 */
+	public static String getEncounterTypeName(String admissionType) {
+		String name = ENCOUNTER_TYPE_NAMES.get(admissionType);
+		return name != null ? name : admissionType;
+	}
+	
+	/**
+	 * Re-reads all known metadata from the database. Nothing is created here.
+	 */
+	public void refresh() {
+		synchronized (lock) {
+			EncounterService encounterService = Context.getEncounterService();
+			Map<String, Integer> encounterTypes = new HashMap<String, Integer>();
+			for (String name : ENCOUNTER_TYPE_NAMES.values()) {
+				EncounterType encounterType = encounterService.getEncounterType(name);
+				if (encounterType != null)
+					encounterTypes.put(name, encounterType.getEncounterTypeId());
+			}
+			
+			PersonService personService = Context.getPersonService();
+			Map<String, Integer> attributeTypes = new HashMap<String, Integer>();
+			for (String name : ATTRIBUTE_TYPE_DESCRIPTIONS.keySet()) {
+				PersonAttributeType attributeType = personService.getPersonAttributeTypeByName(name);
+				if (attributeType != null)
+					attributeTypes.put(name, attributeType.getPersonAttributeTypeId());
+			}
+			
+			encounterTypeIds = Collections.unmodifiableMap(encounterTypes);
+			attributeTypeIds = Collections.unmodifiableMap(attributeTypes);
+			log.info("Resolved " + encounterTypes.size() + " encounter types and " + attributeTypes.size()
+			        + " person attribute types");
+		}
+	}
+	
+	/**
+	 * @param admissionType the PV1-4 admission type
+	 * @return a reference to the encounter type for it, created if missing
+	 */
+	public EncounterType getEncounterType(String admissionType) {
+		String name = getEncounterTypeName(admissionType);
+		Integer id = encounterTypeIds.get(name);
+		if (id == null) {
+			synchronized (lock) {
+				id = encounterTypeIds.get(name);
+				if (id == null) {
+					id = getService().createEncounterType(name, name + " Encounter type created by Rsms notification");
+					encounterTypeIds = publish(encounterTypeIds, name, id);
+				}
+			}
+		}
+		return getService().getEncounterTypeReference(id);
+	}
+	
+	public PersonAttributeType getEpidAttributeType() {
+		return getService().getPersonAttributeTypeReference(getEpidAttributeTypeId());
+	}
+	
+	/**
+	 * @return the id of the EPID attribute type, created if missing
+	 */
+	public Integer getEpidAttributeTypeId() {
+		return getPersonAttributeTypeId(EPID_ATTRIBUTE_TYPE);
+	}
+	
+	public PersonAttributeType getRoleAttributeType() {
+		return getService().getPersonAttributeTypeReference(getPersonAttributeTypeId(ROLE_ATTRIBUTE_TYPE));
+	}
+	
+	private Integer getPersonAttributeTypeId(String name) {
+		Integer id = attributeTypeIds.get(name);
+		if (id == null) {
+			synchronized (lock) {
+				id = attributeTypeIds.get(name);
+				if (id == null) {
+					id = getService().createPersonAttributeType(name, ATTRIBUTE_TYPE_DESCRIPTIONS.get(name));
+					attributeTypeIds = publish(attributeTypeIds, name, id);
+				}
+			}
+		}
+		return id;
+	}
+	
+	private static RapidSMSValidatorService getService() {
+		return Context.getService(RapidSMSValidatorService.class);
+	}
+	
+	private static Map<String, Integer> publish(Map<String, Integer> current, String name, Integer id) {
+		Map<String, Integer> copy = new HashMap<String, Integer>(current);
+		copy.put(name, id);
+		return Collections.unmodifiableMap(copy);
+	}
+}
@@ -1,30 +1,117 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.api;
-
-import static org.junit.Assert.*;
-import org.junit.Test;
-import org.openmrs.api.context.Context;
-import org.openmrs.test.BaseModuleContextSensitiveTest;
-
-/**
- * Tests {@link ${RapidSMSValidatorService}}.
- */
-public class  RapidSMSValidatorServiceTest extends BaseModuleContextSensitiveTest {
-	
-	@Test
-	public void shouldSetupContext() {
-		assertNotNull(Context.getService(RapidSMSValidatorService.class));
-	}
-}
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.JobCheckpoint;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.api.job.JobStatus;
+import org.openmrs.module.rapidsmsvalidator.api.job.JobType;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests {@link ${RapidSMSValidatorService}}.
+ */
+public class  RapidSMSValidatorServiceTest extends BaseModuleContextSensitiveTest {
+	
+	@Test
+	public void shouldSetupContext() {
+		assertNotNull(Context.getService(RapidSMSValidatorService.class));
+	}
+	
+	@Test
+	public void deleteJobMessageStatuses_shouldKeepTheStatusesUpToTheCheckpoint() {
+		RapidSMSValidatorService service = Context.getService(RapidSMSValidatorService.class);
+		JobCheckpoint checkpoint = new JobCheckpoint();
+		checkpoint.setJobType(JobType.REPLAY.name());
+		checkpoint.setFromId(1);
+		checkpoint.setToId(4);
+		checkpoint.setWorkers(1);
+		checkpoint.setStatus(JobStatus.RUNNING.name());
+		checkpoint.setCheckpoint(2);
+		checkpoint.setProcessed(4L);
+		checkpoint.setFailed(0L);
+		checkpoint.setDateCreated(new Date());
+		checkpoint = service.saveJobCheckpoint(checkpoint, Collections.<JobMessageStatus> emptyList());
+		
+		int jobId = checkpoint.getJobId();
+		List<JobMessageStatus> statuses = new ArrayList<JobMessageStatus>();
+		for (int postRequestId = 1; postRequestId <= 4; postRequestId++)
+			statuses.add(new JobMessageStatus(jobId, postRequestId, ReplayOutcome.PROCESSED.name()));
+		service.saveJobCheckpoint(checkpoint, statuses);
+		
+		// a resumed job runs again after its checkpoint and records these statuses again
+		assertEquals(2, service.deleteJobMessageStatuses(jobId, 2));
+		List<JobMessageStatus> kept = service.getJobMessageStatuses(jobId, null, 0, 10);
+		assertEquals(2, kept.size());
+		assertEquals(Integer.valueOf(1), kept.get(0).getPostRequestId());
+		assertEquals(Integer.valueOf(2), kept.get(1).getPostRequestId());
+	}
+	
+	@Test
+	public void getAppliedEncounterIds_shouldOnlyReturnMessagesWithAnUnvoidedEncounter() {
+		RapidSMSValidatorService service = Context.getService(RapidSMSValidatorService.class);
+		Encounter voided = Context.getEncounterService().getEncounter(4);
+		Context.getEncounterService().voidEncounter(voided, "test");
+		service.saveProcessedMessage("RAPIDSMS|1", 3);
+		service.saveProcessedMessage("RAPIDSMS|2", 4);
+		
+		// a message replayed again after a restart is a duplicate only while its encounter stands
+		Map<String, Integer> applied = service.getAppliedEncounterIds(Arrays.asList("RAPIDSMS|1", "RAPIDSMS|2",
+		    "RAPIDSMS|3"));
+		assertEquals(1, applied.size());
+		assertEquals(Integer.valueOf(3), applied.get("RAPIDSMS|1"));
+	}
+	
+	@Test
+	public void saveObs_shouldInsertObsThatAreReadBackWithTheirEncounter() {
+		RapidSMSValidatorService service = Context.getService(RapidSMSValidatorService.class);
+		Encounter encounter = Context.getEncounterService().getEncounter(3);
+		Obs obs = new Obs();
+		obs.setUuid(UUID.randomUUID().toString());
+		obs.setPerson(encounter.getPatient());
+		obs.setConcept(Context.getConceptService().getConcept(5089));
+		obs.setEncounter(encounter);
+		obs.setObsDatetime(encounter.getEncounterDatetime());
+		obs.setLocation(encounter.getLocation());
+		obs.setValueNumeric(61.5);
+		obs.setComment("batch");
+		obs.setDateCreated(new Date());
+		service.saveObs(Collections.singletonList(obs));
+		
+		Obs saved = Context.getObsService().getObsByUuid(obs.getUuid());
+		assertNotNull(saved);
+		assertEquals(Integer.valueOf(3), saved.getEncounter().getEncounterId());
+		assertEquals(Integer.valueOf(5089), saved.getConcept().getConceptId());
+		assertEquals(61.5, saved.getValueNumeric(), 0);
+		assertEquals("batch", saved.getComment());
+		assertEquals(Context.getAuthenticatedUser(), saved.getCreator());
+		assertFalse(saved.isVoided());
+		assertTrue(Context.getEncounterService().getEncounter(3).getObs().contains(saved));
+	}
+}
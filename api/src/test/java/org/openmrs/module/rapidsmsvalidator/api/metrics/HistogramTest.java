@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Histogram}.
+ */
+public class HistogramTest {
+	
+	@Test
+	public void shouldKeepSmallValuesExact() {
+		for (int i = 0; i < 64; i++)
+			assertEquals(i, Histogram.lowerBoundOf(Histogram.indexOf(i)));
+	}
+	
+	@Test
+	public void shouldBucketLargeValuesWithinThreePercent() {
+		for (long value = 64; value < 1L << 40; value = value * 3 / 2 + 7) {
+			long lowerBound = Histogram.lowerBoundOf(Histogram.indexOf(value));
+			assertTrue(lowerBound <= value);
+			assertTrue(value - lowerBound <= value / 32);
+		}
+	}
+	
+	@Test
+	public void shouldReportPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+		
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean(), 0.001);
+		assertEquals(500000, histogram.getPercentile(50), 500000 / 32);
+		assertEquals(990000, histogram.getPercentile(99), 990000 / 32);
+		assertEquals(1000000, histogram.getPercentile(100));
+	}
+	
+	@Test
+	public void shouldClearOnReset() {
+		Histogram histogram = new Histogram();
+		histogram.record(42);
+		histogram.reset();
+		
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(99));
+		assertEquals(0, histogram.getMean(), 0);
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.replay;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Hl7RawScanner}.
+ */
+public class Hl7RawScannerTest {
+	
+	private static final String MESSAGE = "MSH|^~\\&|RAPIDSMS^x|417|SHR|RWANDA|20120101120000||ORU^R01^ORU_R01|1|P|2.5\r"
+	        + "PID|||1234567890^^^^ECID~55^^^^NID||Doe^Jane\r\n" + "PV1|1|O||RISK|||0987654321^Smith^John\r"
+	        + "OBR|1|||Notification";
+	
+	@Test
+	public void shouldReadFirstComponentOfField() {
+		assertEquals("RAPIDSMS", Hl7RawScanner.getField(MESSAGE, "MSH", 3));
+		assertEquals("417", Hl7RawScanner.getField(MESSAGE, "MSH", 4));
+		assertEquals("1234567890", Hl7RawScanner.getField(MESSAGE, "PID", 3));
+		assertEquals("RISK", Hl7RawScanner.getField(MESSAGE, "PV1", 4));
+		assertEquals("Notification", Hl7RawScanner.getField(MESSAGE, "OBR", 4));
+		assertEquals("", Hl7RawScanner.getField(MESSAGE, "PV1", 3));
+	}
+	
+	@Test
+	public void shouldReturnNullForMissingSegmentOrField() {
+		assertNull(Hl7RawScanner.getField(MESSAGE, "OBX", 3));
+		assertNull(Hl7RawScanner.getField(MESSAGE, "OBR", 7));
+		assertNull(Hl7RawScanner.getField("not hl7", "MSH", 3));
+		assertNull(Hl7RawScanner.getField(null, "MSH", 3));
+	}
+	
+	@Test
+	public void shouldMatchFieldAgainstValues() {
+		assertTrue(Hl7RawScanner.fieldEquals(MESSAGE, "MSH", 3, "RAPIDSMS"));
+		assertTrue(Hl7RawScanner.fieldEquals(MESSAGE, "PV1", 4, "MAT", "RISK"));
+		assertFalse(Hl7RawScanner.fieldEquals(MESSAGE, "PV1", 4, "RIS", "RISKY"));
+		assertFalse(Hl7RawScanner.fieldEquals(MESSAGE, "MSH", 3, "SHR"));
+		assertFalse(Hl7RawScanner.fieldEquals(MESSAGE, "ZZZ", 1, ""));
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ConceptCache}.
+ */
+public class ConceptCacheTest {
+	
+	@Test
+	public void shouldAnswerCachedMissesWithoutALookup() {
+		ConceptCache cache = new ConceptCache(10, 0);
+		// what a lookup that found no concept leaves behind, no Context is needed to read it
+		cache.getMappingCache().put("RSMS\u0000XX", -1);
+		cache.getNameCache().put("UNKNOWN", -1);
+		
+		assertNull(cache.getConceptByMapping("XX", "RSMS"));
+		assertNull(cache.getConceptByName("UNKNOWN"));
+		assertEquals(1, cache.getMappingCache().getHits());
+		assertEquals(1, cache.getNameCache().getHits());
+	}
+	
+	@Test
+	public void invalidate_shouldDropMappingsAndNames() {
+		ConceptCache cache = new ConceptCache(10, 0);
+		cache.getMappingCache().put("RSMS\u0000XX", -1);
+		cache.getNameCache().put("UNKNOWN", -1);
+		
+		cache.invalidate();
+		assertEquals(0, cache.getMappingCache().size());
+		assertEquals(0, cache.getNameCache().size());
+	}
+}
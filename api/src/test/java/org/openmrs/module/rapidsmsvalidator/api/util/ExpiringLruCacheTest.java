@@ -0,0 +1,77 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ExpiringLruCache}.
+ */
+public class ExpiringLruCacheTest {
+	
+	@Test
+	public void shouldEvictTheLeastRecentlyUsedEntry() {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<String, Integer>(2, 0);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		// reading a makes b the least recently used
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+		
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+	}
+	
+	@Test
+	public void shouldExpireEntriesAfterTheirTimeToLive() throws Exception {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<String, Integer>(10, 50);
+		cache.put("a", 1);
+		assertTrue(cache.contains("a"));
+		
+		Thread.sleep(100);
+		assertFalse(cache.contains("a"));
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void shouldCountHitsAndMisses() {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<String, Integer>(10, 0);
+		assertEquals(0, cache.getHitRatio(), 0);
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		// contains counts neither
+		cache.contains("b");
+		
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.75, cache.getHitRatio(), 0);
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(3, cache.getHits());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNullValues() {
+		new ExpiringLruCache<String, Integer>(10, 0).put("a", null);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Hl7DateParser}.
+ */
+public class Hl7DateParserTest {
+	
+	private static final TimeZone KIGALI = TimeZone.getTimeZone("Africa/Kigali");
+	
+	private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+	
+	private final Hl7DateParser parser = new Hl7DateParser(KIGALI);
+	
+	@Test
+	public void shouldDefaultMissingPartsToStartOfPeriod() {
+		assertEquals(millis(KIGALI, 2012, 1, 1, 0, 0, 0), parser.parse("2012"));
+		assertEquals(millis(KIGALI, 2012, 5, 1, 0, 0, 0), parser.parse("201205"));
+		assertEquals(millis(KIGALI, 2012, 5, 17, 0, 0, 0), parser.parse("20120517"));
+		assertEquals(millis(KIGALI, 2012, 5, 17, 14, 0, 0), parser.parse("2012051714"));
+		assertEquals(millis(KIGALI, 2012, 5, 17, 14, 30, 0), parser.parse("201205171430"));
+		assertEquals(millis(KIGALI, 2012, 5, 17, 14, 30, 15), parser.parse("20120517143015"));
+	}
+	
+	@Test
+	public void shouldKeepFractionsOfASecond() {
+		long second = millis(KIGALI, 2012, 5, 17, 14, 30, 15);
+		assertEquals(second + 500, parser.parse("20120517143015.5"));
+		assertEquals(second + 120, parser.parse("20120517143015.12"));
+		assertEquals(second + 123, parser.parse("20120517143015.1234"));
+	}
+	
+	@Test
+	public void shouldApplyOffsetSuffix() {
+		long utc = millis(TimeZone.getTimeZone("UTC"), 2012, 5, 17, 12, 0, 0);
+		assertEquals(utc, parser.parse("20120517140000+0200"));
+		assertEquals(utc, parser.parse("20120517083000-0330"));
+		assertEquals(utc, parser.parse("20120517120000.0+0000"));
+	}
+	
+	@Test
+	public void shouldFollowDaylightSavingTimeOfZone() {
+		Hl7DateParser newYork = new Hl7DateParser(NEW_YORK);
+		assertEquals(millis(NEW_YORK, 2012, 1, 15, 12, 0, 0), newYork.parse("20120115120000"));
+		assertEquals(millis(NEW_YORK, 2012, 7, 15, 12, 0, 0), newYork.parse("20120715120000"));
+		assertEquals(millis(NEW_YORK, 2012, 11, 4, 3, 0, 0), newYork.parse("20121104030000"));
+	}
+	
+	@Test
+	public void shouldRollOverLikeLenientCalendar() {
+		assertEquals(millis(KIGALI, 2012, 3, 1, 0, 0, 0), parser.parse("20120230"));
+		assertEquals(millis(KIGALI, 2013, 1, 1, 0, 0, 0), parser.parse("20121301"));
+	}
+	
+	@Test
+	public void shouldParseTimeOnTheDayUsedBefore() {
+		Calendar calendar = Calendar.getInstance(KIGALI);
+		calendar.clear();
+		calendar.set(0, -1, 0, 13, 45, 10);
+		assertEquals(calendar.getTimeInMillis(), parser.parseTime("134510"));
+		assertEquals(calendar.getTimeInMillis() - 10000, parser.parseTime("1345"));
+	}
+	
+	@Test
+	public void shouldRejectMalformedValues() {
+		for (String value : new String[] { "", "201", "20121", "2012010", "2012-01-01", "20120101120000.",
+		        "20120101120000.12345", "20120101120000+02", "2012010x" }) {
+			try {
+				parser.parse(value);
+				fail("accepted '" + value + "'");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	private static long millis(TimeZone zone, int year, int month, int day, int hour, int minute, int second) {
+		Calendar calendar = Calendar.getInstance(zone);
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis();
+	}
+}
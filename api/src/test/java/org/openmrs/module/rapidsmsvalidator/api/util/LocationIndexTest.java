@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openmrs.Location;
+
+/**
+ * Tests {@link LocationIndex}.
+ */
+public class LocationIndexTest {
+	
+	private Location location(int id, String description) {
+		Location location = new Location(id);
+		location.setDescription(description);
+		return location;
+	}
+	
+	@Test
+	public void shouldResolveLocationByFosaId() {
+		LocationIndex index = new LocationIndex();
+		Location kigali = location(1, "FOSA: 417");
+		index.rebuild(Arrays.asList(kigali, location(2, "no fosa id"), location(3, "FOSA:418")));
+		
+		assertEquals(kigali.getLocationId(), index.getLocationId("417"));
+		assertEquals(Integer.valueOf(3), index.getLocationId("418"));
+		assertNull(index.getLocationId("419"));
+		assertTrue(index.getAmbiguousFosaIds().isEmpty());
+	}
+	
+	@Test
+	public void shouldReportDuplicateFosaIds() {
+		LocationIndex index = new LocationIndex();
+		Location second = location(2, "FOSA: 417");
+		index.rebuild(Arrays.asList(location(1, "FOSA: 417"), second));
+		
+		assertEquals(second.getLocationId(), index.getLocationId("417"));
+		assertTrue(index.getAmbiguousFosaIds().contains("417"));
+	}
+}
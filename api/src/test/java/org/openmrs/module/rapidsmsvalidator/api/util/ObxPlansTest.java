@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.api.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.v25.datatype.CE;
+import ca.uhn.hl7v2.model.v25.message.ORU_R01;
+
+/**
+ * Tests {@link ObxPlans}.
+ */
+public class ObxPlansTest extends BaseModuleContextSensitiveTest {
+	
+	private static final String SOURCE = "RSMS";
+	
+	@Before
+	public void mapConcepts() throws Exception {
+		ConceptCache.getInstance().invalidate();
+		ObxPlans.getInstance().invalidate();
+		ConceptCache.getInstance().getMappingCache().put(SOURCE + "\u0000WT", 5089);
+		ConceptCache.getInstance().getMappingCache().put(SOURCE + "\u0000CS", 4);
+		
+		ConceptService conceptService = Context.getConceptService();
+		Concept civilStatus = conceptService.getConcept(4);
+		civilStatus.setDatatype(conceptService.getConceptDatatypeByName("Coded"));
+		civilStatus.addAnswer(new ConceptAnswer(conceptService.getConcept(5)));
+	}
+	
+	@Test
+	public void getPlan_shouldCompileTheValueTypeOfANumericConcept() throws Exception {
+		ObxPlan plan = ObxPlans.getInstance().getPlan(identifier("WT"), "NM");
+		assertEquals(Integer.valueOf(5089), plan.getConceptId());
+		assertEquals(ObsValueType.NUMERIC, plan.getValueType());
+		assertEquals(ObsValueType.NUMERIC, plan.getBooleanValueType());
+		assertNull(plan.getBooleanConceptId(true));
+	}
+	
+	@Test
+	public void getPlan_shouldCompileTheAnswersOfACodedConcept() throws Exception {
+		ObxPlan plan = ObxPlans.getInstance().getPlan(identifier("CS"), "CE");
+		assertEquals(ObsValueType.CODED, plan.getValueType());
+		assertEquals(ObsValueType.CODED_BOOLEAN, plan.getBooleanValueType());
+		assertTrue(plan.isAnswer(5));
+		assertFalse(plan.isAnswer(5089));
+	}
+	
+	@Test(expected = HL7Exception.class)
+	public void getPlan_shouldFailForAnUnmappedIdentifier() throws Exception {
+		ConceptCache.getInstance().getMappingCache().put(SOURCE + "\u0000XX", -1);
+		ObxPlans.getInstance().getPlan(identifier("XX"), "NM");
+	}
+	
+	@Test(expected = HL7Exception.class)
+	public void getPlan_shouldFailForAnUnsupportedDatatype() throws Exception {
+		ObxPlans.getInstance().getPlan(identifier("WT"), "SN");
+	}
+	
+	@Test
+	public void getPlan_shouldKeepTheCompiledPlanUntilInvalidated() throws Exception {
+		ObxPlans plans = ObxPlans.getInstance();
+		ObxPlan plan = plans.getPlan(identifier("WT"), "NM");
+		assertSame(plan, plans.getPlan(identifier("WT"), "NM"));
+		assertNotSame(plan, plans.getPlan(identifier("WT"), "ST"));
+		assertEquals(2, plans.size());
+		
+		plans.invalidate();
+		assertEquals(0, plans.size());
+		assertNotSame(plan, plans.getPlan(identifier("WT"), "NM"));
+	}
+	
+	private static CE identifier(String code) throws Exception {
+		CE identifier = new CE(new ORU_R01());
+		identifier.getIdentifier().setValue(code);
+		identifier.getNameOfCodingSystem().setValue(SOURCE);
+		return identifier;
+	}
+}
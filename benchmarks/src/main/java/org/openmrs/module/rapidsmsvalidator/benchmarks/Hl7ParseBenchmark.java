@@ -0,0 +1,77 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.rapidsmsvalidator.api.replay.Hl7RawScanner;
+import org.openmrs.module.rapidsmsvalidator.api.util.Hl7Parsers;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsNotificationHandler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.v25.message.ORU_R01;
+
+/**
+ * Parsing and classifying one notification of each admission type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Hl7ParseBenchmark {
+	
+	private static final String[] REPLAYED_TYPES = { "RISK", "MAT" };
+	
+	@Param( { "BIR", "RISK", "MAT" })
+	public String admissionType;
+	
+	private String hl7;
+	
+	private ORU_R01 parsed;
+	
+	@Setup
+	public void setUp() throws HL7Exception {
+		hl7 = Payloads.notification(admissionType, 1);
+		parsed = (ORU_R01) Hl7Parsers.getParser().parse(hl7);
+	}
+	
+	@Benchmark
+	public Message parse() throws HL7Exception {
+		return Hl7Parsers.getParser().parse(hl7);
+	}
+	
+	@Benchmark
+	public boolean classifyRaw() {
+		return Hl7RawScanner.fieldEquals(hl7, "PV1", 4, REPLAYED_TYPES);
+	}
+	
+	@Benchmark
+	public String messageKey() throws HL7Exception {
+		return RsmsNotificationHandler.getMessageKey(parsed);
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.ConceptSource;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonName;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.test.context.TestContextManager;
+
+/**
+ * The H2 database of the OpenMRS module tests, outside of JUnit. Holds the standard test data plus
+ * the patients, facilities and concepts {@link Payloads} refer to. Providers are left to the replay,
+ * which creates them.
+ */
+public class InMemoryDatabase extends BaseModuleContextSensitiveTest {
+	
+	/**
+	 * Starts the Spring context and loads and commits the data. Leaves an open, authenticated
+	 * Context session on the calling thread.
+	 */
+	public void start() throws Exception {
+		new TestContextManager(getClass()).prepareTestInstance(this);
+		Context.openSession();
+		baseSetupWithStandardDataAndAuthentication();
+		createPatients(createEcidType(), Context.getLocationService().getLocation(1));
+		createFacilities();
+		createConcepts();
+		Context.flushSession();
+		getConnection().commit();
+		Context.clearSession();
+	}
+	
+	public void stop() {
+		Context.closeSession();
+	}
+	
+	private PatientIdentifierType createEcidType() {
+		PatientIdentifierType ecid = new PatientIdentifierType();
+		ecid.setName(PatientResolver.ECID_IDENTIFIER_TYPE);
+		ecid.setDescription("Enterprise client id");
+		return Context.getPatientService().savePatientIdentifierType(ecid);
+	}
+	
+	private void createPatients(PatientIdentifierType ecid, Location location) {
+		PatientService patientService = Context.getPatientService();
+		for (int i = 0; i < Payloads.PATIENTS; i++) {
+			Patient patient = new Patient();
+			patient.addName(new PersonName("Jane", null, "Doe"));
+			patient.setGender("F");
+			patient.setBirthdate(new Date(0));
+			PatientIdentifier identifier = new PatientIdentifier(Payloads.ecid(i), ecid, location);
+			identifier.setPreferred(true);
+			patient.addIdentifier(identifier);
+			patientService.savePatient(patient);
+		}
+	}
+	
+	private void createFacilities() {
+		LocationService locationService = Context.getLocationService();
+		for (int i = 0; i < Payloads.FACILITIES; i++) {
+			Location location = new Location();
+			location.setName("Facility " + i);
+			location.setDescription("FOSA: " + Payloads.fosaId(i));
+			locationService.saveLocation(location);
+		}
+	}
+	
+	private void createConcepts() {
+		ConceptService conceptService = Context.getConceptService();
+		ConceptSource source = new ConceptSource();
+		source.setName(Payloads.CODING_SYSTEM);
+		source.setHl7Code(Payloads.CODING_SYSTEM);
+		source.setDescription("RapidSMS concepts");
+		conceptService.saveConceptSource(source);
+		
+		createConcept(source, Payloads.ANSWER_CODE, "N/A");
+		for (Map.Entry<String, String> code : Payloads.CONCEPT_CODES.entrySet())
+			createConcept(source, code.getValue(), getDatatypeName(code.getKey()));
+	}
+	
+	private void createConcept(ConceptSource source, String code, String datatype) {
+		ConceptService conceptService = Context.getConceptService();
+		Concept concept = "Numeric".equals(datatype) ? new ConceptNumeric() : new Concept();
+		concept.addName(new ConceptName("RAPIDSMS " + code, Locale.ENGLISH));
+		concept.setDatatype(conceptService.getConceptDatatypeByName(datatype));
+		concept.setConceptClass(conceptService.getConceptClassByName("Misc"));
+		ConceptMap map = new ConceptMap();
+		map.setSource(source);
+		map.setSourceCode(code);
+		concept.addConceptMapping(map);
+		conceptService.saveConcept(concept);
+	}
+	
+	private static String getDatatypeName(String hl7Datatype) {
+		if ("NM".equals(hl7Datatype))
+			return "Numeric";
+		if ("CWE".equals(hl7Datatype) || "CE".equals(hl7Datatype))
+			return "Coded";
+		if ("DT".equals(hl7Datatype))
+			return "Date";
+		if ("TS".equals(hl7Datatype))
+			return "Datetime";
+		if ("TM".equals(hl7Datatype))
+			return "Time";
+		return "Text";
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.rapidsmsvalidator.api.util.Hl7Parsers;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsNotificationHandler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.app.ApplicationException;
+import ca.uhn.hl7v2.model.Message;
+
+/**
+ * Converting OBX segments to obs, per OBX-5 datatype. Every notification carries
+ * {@link #OBSERVATIONS} observations of one datatype and is handled against {@link Stubs}, so the
+ * cost of the patient, provider and location lookups is small and the same for every datatype.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObsConversionBenchmark {
+	
+	public static final int OBSERVATIONS = 20;
+	
+	@Param( { "NM", "CWE", "CE", "DT", "TS", "TM", "ST" })
+	public String datatype;
+	
+	private RsmsNotificationHandler handler;
+	
+	private Message message;
+	
+	@Setup
+	public void setUp() throws HL7Exception {
+		Stubs.install();
+		handler = new RsmsNotificationHandler();
+		message = Hl7Parsers.getParser().parse(Payloads.observations(datatype, OBSERVATIONS));
+	}
+	
+	@Benchmark
+	public Message processMessage() throws ApplicationException {
+		return handler.processMessage(message);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Representative RapidSMS ORU_R01 notifications. The concept codes, ECIDs, EPIDs and facility ids
+ * they use are the ones {@link Stubs} and {@link InMemoryDatabase} set up.
+ */
+public final class Payloads {
+	
+	public static final String CODING_SYSTEM = "RWCS";
+	
+	/** the OBX-3 concept code used for each OBX-5 datatype */
+	public static final Map<String, String> CONCEPT_CODES;
+	
+	static {
+		Map<String, String> codes = new LinkedHashMap<String, String>();
+		codes.put("NM", "5089");
+		codes.put("CWE", "1284");
+		codes.put("CE", "1065");
+		codes.put("DT", "5596");
+		codes.put("TS", "160259");
+		codes.put("TM", "160260");
+		codes.put("ST", "160632");
+		CONCEPT_CODES = Collections.unmodifiableMap(codes);
+	}
+	
+	/** the number of patients notifications refer to */
+	public static final int PATIENTS = 1000;
+	
+	/** the number of providers and facilities notifications refer to */
+	public static final int FACILITIES = 100;
+	
+	/** the coded answer of the CE and CWE observations */
+	public static final String ANSWER_CODE = "1066";
+	
+	private static final String TIMESTAMP = "20120101120000";
+	
+	private Payloads() {
+	}
+	
+	public static String ecid(int i) {
+		return "ECID" + i;
+	}
+	
+	public static String epid(int i) {
+		return "EPID" + i;
+	}
+	
+	public static String fosaId(int i) {
+		return String.valueOf(400 + i);
+	}
+	
+	/**
+	 * @param admissionType BIR, RISK or MAT
+	 * @param i picks the patient, provider and facility, and makes the control id unique
+	 */
+	public static String notification(String admissionType, int i) {
+		StringBuilder hl7 = header(admissionType, "MSG" + i, ecid(i % PATIENTS), epid(i % FACILITIES),
+		    fosaId(i % FACILITIES));
+		if ("BIR".equals(admissionType)) {
+			obx(hl7, 1, "TS", TIMESTAMP);
+			obx(hl7, 2, "NM", "3.2");
+			obx(hl7, 3, "CWE", ANSWER_CODE + "^Female^" + CODING_SYSTEM);
+			obx(hl7, 4, "ST", "born at home");
+		} else if ("RISK".equals(admissionType)) {
+			obx(hl7, 1, "NM", "60");
+			obx(hl7, 2, "CE", ANSWER_CODE + "^No^" + CODING_SYSTEM);
+			obx(hl7, 3, "DT", "20120601");
+			obx(hl7, 4, "CE", ANSWER_CODE + "^No^" + CODING_SYSTEM);
+			obx(hl7, 5, "NM", "1");
+			obx(hl7, 6, "TM", "1200");
+			obx(hl7, 7, "ST", "referred");
+			obx(hl7, 8, "TS", TIMESTAMP);
+		} else {
+			obx(hl7, 1, "TS", TIMESTAMP);
+			obx(hl7, 2, "CE", ANSWER_CODE + "^No^" + CODING_SYSTEM);
+			obx(hl7, 3, "ST", "hemorrhage");
+		}
+		return hl7.toString();
+	}
+	
+	/**
+	 * @return a RISK notification with count observations of one OBX-5 datatype
+	 */
+	public static String observations(String datatype, int count) {
+		StringBuilder hl7 = header("RISK", "OBX" + datatype, ecid(0), epid(0), fosaId(0));
+		for (int i = 1; i <= count; i++)
+			obx(hl7, i, datatype, value(datatype));
+		return hl7.toString();
+	}
+	
+	private static String value(String datatype) {
+		if ("NM".equals(datatype))
+			return "60";
+		if ("CWE".equals(datatype) || "CE".equals(datatype))
+			return ANSWER_CODE + "^No^" + CODING_SYSTEM;
+		if ("DT".equals(datatype))
+			return "20120601";
+		if ("TS".equals(datatype))
+			return TIMESTAMP;
+		if ("TM".equals(datatype))
+			return "1200";
+		return "text";
+	}
+	
+	private static StringBuilder header(String admissionType, String controlId, String ecid, String epid, String fosaId) {
+		StringBuilder hl7 = new StringBuilder(1024);
+		hl7.append("MSH|^~\\&|RAPIDSMS|").append(fosaId).append("|SHR|RWANDA|").append(TIMESTAMP)
+		        .append("||ORU^R01^ORU_R01|").append(controlId).append("|P|2.5\r");
+		hl7.append("PID|||").append(ecid).append("^^^^ECID||Doe^Jane\r");
+		hl7.append("PV1|1|O||").append(admissionType).append("|||").append(epid).append("^Smith^John\r");
+		hl7.append("OBR|1|||Notification^Notification|||").append(TIMESTAMP).append('\r');
+		return hl7;
+	}
+	
+	private static void obx(StringBuilder hl7, int setId, String datatype, String value) {
+		hl7.append("OBX|").append(setId).append('|').append(datatype).append('|').append(CONCEPT_CODES.get(datatype))
+		        .append('^').append(datatype).append(" observation^").append(CODING_SYSTEM).append("||").append(value)
+		        .append("||||||F|||").append(TIMESTAMP).append('\r');
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayEngine;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayItem;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+
+/**
+ * Replaying RISK and MAT notifications end to end with a {@link ReplayEngine} against the
+ * {@link InMemoryDatabase}, reported as time per message.
+ * <p>
+ * The logs are served from memory instead of the PostEncounterLog table, which belongs to the
+ * rheashradapter module. Everything else, encounters, obs, providers and the message index, is
+ * written to H2. Every iteration replays {@link #MESSAGES} new logs, so none is a duplicate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReplayBenchmark {
+	
+	public static final int MESSAGES = 2000;
+	
+	@Param( { "1", "4" })
+	public int workers;
+	
+	private final List<ReplayItem> logs = new ArrayList<ReplayItem>();
+	
+	private InMemoryDatabase database;
+	
+	private UserContext userContext;
+	
+	private RapidSMSValidatorService service;
+	
+	private int fromId;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		database = new InMemoryDatabase();
+		database.start();
+		userContext = Context.getUserContext();
+		service = withLogs(Context.getService(RapidSMSValidatorService.class));
+	}
+	
+	@Setup(Level.Iteration)
+	public void addLogs() {
+		fromId = logs.size() + 1;
+		for (int i = 0; i < MESSAGES; i++) {
+			int postRequestId = logs.size() + 1;
+			logs.add(new ReplayItem(postRequestId, Payloads.notification(postRequestId % 2 == 0 ? "RISK" : "MAT",
+			    postRequestId)));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public long replay() throws InterruptedException {
+		Context.openSession();
+		try {
+			Context.setUserContext(userContext);
+			ReplayEngine engine = new ReplayEngine(service, fromId, logs.size());
+			engine.setWorkers(workers);
+			engine.run();
+			if (engine.getCount(ReplayOutcome.PROCESSED) != MESSAGES)
+				throw new IllegalStateException("Only " + engine.getCount(ReplayOutcome.PROCESSED) + " of " + MESSAGES
+				        + " logs were replayed, failed: " + engine.getFailedIds());
+			return engine.getCount(ReplayOutcome.PROCESSED);
+		}
+		finally {
+			Context.closeSession();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		database.stop();
+	}
+	
+	/**
+	 * @return the service, except that replay pages are read from {@link #logs}
+	 */
+	private RapidSMSValidatorService withLogs(final RapidSMSValidatorService service) {
+		return (RapidSMSValidatorService) Proxy.newProxyInstance(RapidSMSValidatorService.class.getClassLoader(),
+		    new Class<?>[] { RapidSMSValidatorService.class }, new InvocationHandler() {
+			    
+			    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				    if ("getReplayItemPage".equals(method.getName())) {
+					    int afterId = (Integer) args[0];
+					    int toId = Math.min((Integer) args[1], logs.size());
+					    int maxResults = (Integer) args[2];
+					    return new ArrayList<ReplayItem>(logs.subList(Math.min(afterId, toId), Math.min(toId, afterId
+					            + maxResults)));
+				    }
+				    try {
+					    return method.invoke(service, args);
+				    }
+				    catch (InvocationTargetException e) {
+					    throw e.getCause();
+				    }
+			    }
+		    });
+	}
+}
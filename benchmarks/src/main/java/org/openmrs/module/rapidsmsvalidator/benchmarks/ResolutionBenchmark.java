@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Concept;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.module.rapidsmsvalidator.api.util.ConceptCache;
+import org.openmrs.module.rapidsmsvalidator.api.util.LocationIndex;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+
+/**
+ * Resolving facilities, concepts and patients against {@link Stubs} holding {@link Stubs#SIZE} of
+ * each, in a random but repeatable order. With a concept cache smaller than the number of concepts
+ * part of the lookups miss the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolutionBenchmark {
+	
+	@Param( { "2000", "20000" })
+	public int conceptCacheSize;
+	
+	private ConceptCache conceptCache;
+	
+	private String[] fosaIds;
+	
+	private String[] conceptCodes;
+	
+	private String[] ecids;
+	
+	private int next;
+	
+	@Setup
+	public void setUp() {
+		Stubs.install();
+		conceptCache = new ConceptCache(conceptCacheSize, ConceptCache.DEFAULT_TTL);
+		
+		fosaIds = new String[Stubs.SIZE];
+		ecids = new String[Stubs.SIZE];
+		for (int i = 0; i < Stubs.SIZE; i++) {
+			fosaIds[i] = Payloads.fosaId(i);
+			ecids[i] = Payloads.ecid(i);
+		}
+		conceptCodes = Stubs.getConceptCodes();
+		
+		Random random = new Random(42);
+		// the lists write through to the arrays
+		Collections.shuffle(Arrays.asList(fosaIds), random);
+		Collections.shuffle(Arrays.asList(ecids), random);
+		Collections.shuffle(Arrays.asList(conceptCodes), random);
+	}
+	
+	@Benchmark
+	public Location location() {
+		return LocationIndex.getInstance().getLocation(fosaIds[next()]);
+	}
+	
+	@Benchmark
+	public Concept conceptByMapping() {
+		return conceptCache.getConceptByMapping(conceptCodes[next()], Payloads.CODING_SYSTEM);
+	}
+	
+	@Benchmark
+	public Patient patientByEcid() {
+		return PatientResolver.getInstance().getPatient(ecids[next()]);
+	}
+	
+	private int next() {
+		next = next + 1 == Stubs.SIZE ? 0 : next + 1;
+		return next;
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.util.ConceptCache;
+import org.openmrs.module.rapidsmsvalidator.api.util.LocationIndex;
+import org.openmrs.module.rapidsmsvalidator.api.util.ObxPlans;
+import org.openmrs.module.rapidsmsvalidator.api.util.PatientResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.ProviderResolver;
+import org.openmrs.module.rapidsmsvalidator.api.util.RsmsMetadata;
+import org.openmrs.module.rheashradapter.api.LogEncounterService;
+
+/**
+ * In memory stand-ins for the OpenMRS services the handler uses, holding {@link #SIZE} patients,
+ * providers, locations and concepts. Nothing is written, saved encounters only get an id.
+ * <p>
+ * The services are dynamic proxies: a call is forwarded to the method of the same signature of a
+ * fixture object, methods without one return null, zero or an empty collection. The reflective
+ * call adds a constant cost to every lookup, so compare results of these benchmarks with each other
+ * rather than with a database.
+ */
+public final class Stubs {
+	
+	public static final int SIZE = 10000;
+	
+	private static final int FILLER_CONCEPT_ID = 100;
+	
+	// marks interface methods the fixtures do not implement
+	private static final Method NONE;
+	
+	static {
+		try {
+			NONE = Object.class.getMethod("toString");
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static boolean installed;
+	
+	private Stubs() {
+	}
+	
+	/**
+	 * Points the OpenMRS Context at the stubs, once per JVM, and clears the module caches.
+	 */
+	public static synchronized void install() {
+		if (!installed) {
+			Fixtures fixtures = new Fixtures(SIZE);
+			ServiceContext serviceContext = ServiceContext.getInstance();
+			new Context().setServiceContext(serviceContext);
+			serviceContext.setConceptService(create(ConceptService.class, fixtures));
+			serviceContext.setEncounterService(create(EncounterService.class, fixtures));
+			serviceContext.setLocationService(create(LocationService.class, fixtures));
+			serviceContext.setPatientService(create(PatientService.class, fixtures));
+			serviceContext.setPersonService(create(PersonService.class, fixtures));
+			serviceContext.setService(RapidSMSValidatorService.class, create(RapidSMSValidatorService.class, fixtures));
+			serviceContext.setService(LogEncounterService.class, create(LogEncounterService.class, fixtures));
+			installed = true;
+		}
+		ConceptCache.getInstance().invalidate();
+		ObxPlans.getInstance().invalidate();
+		LocationIndex.getInstance().invalidate();
+		PatientResolver.getInstance().invalidate();
+		ProviderResolver.getInstance().getCache().clear();
+		RsmsMetadata.getInstance().refresh();
+	}
+	
+	/**
+	 * @return the OBX-3 codes of the {@link #SIZE} concepts that are not used by {@link Payloads}
+	 */
+	public static String[] getConceptCodes() {
+		String[] codes = new String[SIZE];
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = String.valueOf(FILLER_CONCEPT_ID + i);
+		return codes;
+	}
+	
+	/**
+	 * @return a proxy of type that forwards to the methods of target
+	 */
+	public static <T> T create(Class<T> type, final Object target) {
+		final ConcurrentMap<Method, Method> methods = new ConcurrentHashMap<Method, Method>();
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class)
+					return method.invoke(target, args);
+				
+				Method implementation = methods.get(method);
+				if (implementation == null) {
+					implementation = find(target.getClass(), method);
+					methods.put(method, implementation);
+				}
+				if (implementation == NONE)
+					return getDefault(method.getReturnType());
+				try {
+					return implementation.invoke(target, args);
+				}
+				catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		}));
+	}
+	
+	private static Method find(Class<?> type, Method method) {
+		try {
+			Method implementation = type.getDeclaredMethod(method.getName(), method.getParameterTypes());
+			implementation.setAccessible(true);
+			return implementation;
+		}
+		catch (NoSuchMethodException e) {
+			return NONE;
+		}
+	}
+	
+	private static Object getDefault(Class<?> type) {
+		if (type == boolean.class)
+			return Boolean.FALSE;
+		if (type == int.class)
+			return 0;
+		if (type == long.class)
+			return 0L;
+		if (type == double.class)
+			return 0.0;
+		if (List.class.isAssignableFrom(type) || type == Collection.class)
+			return Collections.emptyList();
+		if (Set.class.isAssignableFrom(type))
+			return Collections.emptySet();
+		if (Map.class.isAssignableFrom(type))
+			return Collections.emptyMap();
+		return null;
+	}
+	
+	/**
+	 * The data behind the stubs. Methods are matched by name and parameter types, see
+	 * {@link Stubs#create(Class, Object)}.
+	 */
+	@SuppressWarnings("unused")
+	private static class Fixtures {
+		
+		private final Map<String, Concept> conceptsByMapping = new HashMap<String, Concept>();
+		
+		private final Map<Integer, Concept> concepts = new HashMap<Integer, Concept>();
+		
+		private final List<Location> locations = new ArrayList<Location>();
+		
+		private final Map<String, Patient> patientsByEcid = new HashMap<String, Patient>();
+		
+		private final Map<Integer, Patient> patients = new HashMap<Integer, Patient>();
+		
+		private final Map<String, Person> providersByEpid = new HashMap<String, Person>();
+		
+		private final PatientIdentifierType ecidType = new PatientIdentifierType(1);
+		
+		private final EncounterType encounterType = new EncounterType(1);
+		
+		private final PersonAttributeType attributeType = new PersonAttributeType(1);
+		
+		private final AtomicInteger encounterIds = new AtomicInteger();
+		
+		Fixtures(int size) {
+			ecidType.setName(PatientResolver.ECID_IDENTIFIER_TYPE);
+			encounterType.setName("RapidSMS Notification RISK");
+			attributeType.setName(RsmsMetadata.EPID_ATTRIBUTE_TYPE);
+			
+			addConcept(1, Payloads.CONCEPT_CODES.get("NM"), "NM", "8d4a4488-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(2, Payloads.CONCEPT_CODES.get("CWE"), "CWE", "8d4a48b6-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(3, Payloads.CONCEPT_CODES.get("CE"), "CWE", "8d4a48b6-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(4, Payloads.CONCEPT_CODES.get("DT"), "DT", "8d4a505e-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(5, Payloads.CONCEPT_CODES.get("TS"), "TS", "8d4a5af4-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(6, Payloads.CONCEPT_CODES.get("TM"), "TM", "8d4a591e-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(7, Payloads.CONCEPT_CODES.get("ST"), "ST", "8d4a4ab4-c2cc-11de-8d13-0010c6dffd0f");
+			addConcept(8, Payloads.ANSWER_CODE, "ZZ", "8d4a4c94-c2cc-11de-8d13-0010c6dffd0f");
+			for (int i = 0; i < size; i++) {
+				addConcept(FILLER_CONCEPT_ID + i, String.valueOf(FILLER_CONCEPT_ID + i), "NM",
+				    "8d4a4488-c2cc-11de-8d13-0010c6dffd0f");
+				
+				Location location = new Location(i + 1);
+				location.setName("Facility " + i);
+				location.setDescription("FOSA: " + Payloads.fosaId(i));
+				locations.add(location);
+				
+				Patient patient = new Patient(i + 1);
+				patients.put(patient.getPatientId(), patient);
+				patientsByEcid.put(Payloads.ecid(i), patient);
+				
+				providersByEpid.put(Payloads.epid(i), new Person(size + i + 1));
+			}
+		}
+		
+		private void addConcept(int id, String code, String hl7Datatype, String datatypeUuid) {
+			ConceptDatatype datatype = new ConceptDatatype(id);
+			datatype.setHl7Abbreviation(hl7Datatype);
+			datatype.setUuid(datatypeUuid);
+			Concept concept = new Concept(id);
+			concept.setDatatype(datatype);
+			concepts.put(id, concept);
+			conceptsByMapping.put(code, concept);
+		}
+		
+		// ConceptService
+		
+		public Concept getConceptByMapping(String code, String sourceName) {
+			return Payloads.CODING_SYSTEM.equals(sourceName) ? conceptsByMapping.get(code) : null;
+		}
+		
+		public Concept getConcept(Integer conceptId) {
+			return concepts.get(conceptId);
+		}
+		
+		public Concept getTrueConcept() {
+			return concepts.get(8);
+		}
+		
+		public Concept getFalseConcept() {
+			return concepts.get(8);
+		}
+		
+		// EncounterService
+		
+		public EncounterType getEncounterType(String name) {
+			return encounterType;
+		}
+		
+		public EncounterType getEncounterType(Integer encounterTypeId) {
+			return encounterType;
+		}
+		
+		public Encounter saveEncounter(Encounter encounter) {
+			encounter.setEncounterId(encounterIds.incrementAndGet());
+			return encounter;
+		}
+		
+		// LocationService
+		
+		public List<Location> getAllLocations() {
+			return locations;
+		}
+		
+		// PatientService
+		
+		public PatientIdentifierType getPatientIdentifierTypeByName(String name) {
+			return ecidType;
+		}
+		
+		public PatientIdentifierType getPatientIdentifierType(Integer patientIdentifierTypeId) {
+			return ecidType;
+		}
+		
+		public List<Patient> getPatients(String name, String identifier, List<PatientIdentifierType> identifierTypes,
+		        boolean matchIdentifierExactly) {
+			Patient patient = patientsByEcid.get(identifier);
+			return patient != null ? Collections.singletonList(patient) : Collections.<Patient> emptyList();
+		}
+		
+		public Patient getPatient(Integer patientId) {
+			return patients.get(patientId);
+		}
+		
+		// PersonService
+		
+		public PersonAttributeType getPersonAttributeTypeByName(String typeName) {
+			return attributeType;
+		}
+		
+		public PersonAttributeType getPersonAttributeType(Integer typeId) {
+			return attributeType;
+		}
+		
+		// RapidSMSValidatorService
+		
+		public Person getPersonReference(Integer personId) {
+			return new Person(personId);
+		}
+		
+		public EncounterType getEncounterTypeReference(Integer encounterTypeId) {
+			return encounterType;
+		}
+		
+		public PersonAttributeType getPersonAttributeTypeReference(Integer personAttributeTypeId) {
+			return attributeType;
+		}
+		
+		public Location getLocationReference(Integer locationId) {
+			return locations.get(locationId - 1);
+		}
+		
+		public Concept getConceptReference(Integer conceptId) {
+			return concepts.get(conceptId);
+		}
+		
+		public Patient getPatientReference(Integer patientId) {
+			return patients.get(patientId);
+		}
+		
+		public Map<String, Integer> getAppliedEncounterIds(Collection<String> messageKeys) {
+			return new HashMap<String, Integer>();
+		}
+		
+		public Map<String, List<Integer>> getPatientIdsByIdentifier(int identifierTypeId, Collection<String> identifiers) {
+			Map<String, List<Integer>> ids = new HashMap<String, List<Integer>>();
+			for (String identifier : identifiers) {
+				Patient patient = patientsByEcid.get(identifier);
+				if (patient != null)
+					ids.put(identifier, Collections.singletonList(patient.getPatientId()));
+			}
+			return ids;
+		}
+		
+		public Map<String, List<Integer>> getPersonIdsByAttribute(int attributeTypeId, Collection<String> values) {
+			Map<String, List<Integer>> ids = new HashMap<String, List<Integer>>();
+			for (String value : values) {
+				Person person = providersByEpid.get(value);
+				if (person != null)
+					ids.put(value, Collections.singletonList(person.getPersonId()));
+			}
+			return ids;
+		}
+		
+		// LogEncounterService
+		
+		public Person getPersonByEPID(String epid) {
+			return providersByEpid.get(epid);
+		}
+	}
+}
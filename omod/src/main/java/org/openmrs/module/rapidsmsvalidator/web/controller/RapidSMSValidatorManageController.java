@@ -1,189 +1,289 @@
-/**
- * The contents of this file are subject to the OpenMRS Public License
- * Version 1.0 (the "License"); you may not use this file except in
- * compliance with the License. You may obtain a copy of the License at
- * http://license.openmrs.org
- *
- * Software distributed under the License is distributed on an "AS IS"
- * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
- * License for the specific language governing rights and limitations
- * under the License.
- *
- * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
- */
-package org.openmrs.module.rapidsmsvalidator.web.controller;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.openmrs.Encounter;
-import org.openmrs.EncounterType;
-import org.openmrs.Obs;
-import org.openmrs.Patient;
-import org.openmrs.PatientIdentifierType;
-import org.openmrs.api.context.Context;
-import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
-import org.openmrs.module.rapidsmsvalidator.api.util.RsmsNotificationHandler;
-import org.openmrs.module.rheashradapter.model.PostEncounterLog;
-import org.springframework.stereotype.Controller;
-import org.springframework.ui.ModelMap;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.RequestParam;
-
-import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.app.ApplicationException;
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.model.v25.message.ORU_R01;
-import ca.uhn.hl7v2.model.v25.segment.PID;
-import ca.uhn.hl7v2.parser.EncodingNotSupportedException;
-import ca.uhn.hl7v2.parser.GenericParser;
-
-/**
- * The main controller.
- */
-@Controller
-public class RapidSMSValidatorManageController {
-	
-	protected final Log log = LogFactory.getLog(getClass());
-	
-	@RequestMapping(value = "/module/rapidsmsvalidator/regenrateRapidSMSMessages", method = RequestMethod.GET)
-	public void manage(@RequestParam(value = "fromId", required = false) int idStartRange,
-	        @RequestParam(value = "toId", required = false) int idEndRange, HttpServletRequest request,
-	        HttpServletResponse response) {
-		System.out.println(" *** fromId " + idStartRange);
-		System.out.println(" *** toId " + idEndRange);
-		
-		RapidSMSValidatorService service = Context.getService(RapidSMSValidatorService.class);
-		GenericParser parser = new GenericParser();
-		
-		String hl7GivenName = null;
-		String hl7FamilyName = null;
-		ORU_R01 oru = null;
-		PID pid = null;
-		
-		List<PostEncounterLog> postEncounterLogs = service.getPostEncounterLogs(idStartRange, idEndRange);
-		
-		System.out.println(" *** Begining analysis *** ");
-		for (PostEncounterLog postEncounterLog : postEncounterLogs) {
-			
-			System.out.println(" *** Analyzing " + postEncounterLog.getPostRequestId() + " *** ");
-			Message message = null;
-			
-			if (postEncounterLog.getHl7data() != null) {
-				try {
-					
-					message = parser.parse(postEncounterLog.getHl7data());
-					
-					oru = (ORU_R01) message;
-					
-					if (oru.getMSH().getSendingApplication().getName().equals("RAPIDSMS")) {
-						
-						if (oru.getPATIENT_RESULT().getPATIENT().getVISIT().getPV1().getAdmissionType().getValue()
-						        .toString().equals("RISK")) {
-							System.out.println(" *** RISK message identified ! ");
-							RsmsNotificationHandler rn = new RsmsNotificationHandler();
-							try {
-	                            rn.processMessage(oru);
-                            }
-                            catch (ApplicationException e) {
-	                            // TODO Auto-generated catch block
-	                            e.printStackTrace();
-                            }
-							
-						}
-						
-						if (oru.getPATIENT_RESULT().getPATIENT().getVISIT().getPV1().getAdmissionType().getValue()
-						        .toString().equals("MAT")) {
-							System.out.println(" *** MAT message identified ! ");
-							RsmsNotificationHandler rn = new RsmsNotificationHandler();
-							try {
-	                            rn.processMessage(oru);
-                            }
-                            catch (ApplicationException e) {
-	                            // TODO Auto-generated catch block
-	                            e.printStackTrace();
-                            }	
-							
-						}
-						
-					} else {
-						System.out.println(" *** Non-RapidSMS message *** ");
-					}
-					
-				}
-				catch (EncodingNotSupportedException e) {
-					e.printStackTrace();
-				}
-				catch (HL7Exception e) {
-					e.printStackTrace();
-				}
-				
-			} else {
-				System.out.println("*** Observation : Hl7 data not found ***");
-			}
-		}
-		
-		System.out.println(" *** Ending analysis *** ");
-	}
-	
-	@RequestMapping(value = "/module/rapidsmsvalidator/editBirthEncounters", method = RequestMethod.GET)
-	public void birth(HttpServletRequest request,
-	        HttpServletResponse response) {
-		System.out.println(" *** Initiating the editing of Birth encounters *** ");	
-		List<Patient> patients = Context.getPatientService().getAllPatients();
-		for (Patient p : patients) {
-			System.out.println(" --------------------------------------------------------------------------------- ");
-			System.out.println(" *** Testing Patient id " + p.getPatientId() + " for Birth encounters *** ");
-			List<Encounter> encounters = Context.getEncounterService().getEncounters(p);
-			for (Encounter e : encounters) {
-				if (e.getEncounterType().getId() == 10) {
-					System.out.println(" *** Birth encounter with Id " + e.getEncounterId() + " identified *** ");
-					System.out.println(" *** Existing encounter DateTime is " + e.getEncounterDatetime() + " *** ");
-					Set<Obs> obs = e.getAllObs();
-					for (Obs o : obs) {
-						if (o.getConcept().getConceptId() == 160259) {
-							System.out.println(" *** New encounter DateTime is " + o.getValueDatetime() + " *** ");
-							e.setEncounterDatetime(o.getValueDatetime());
-						}
-					}
-					Context.getEncounterService().saveEncounter(e);
-					System.out.println(" *** Encounters edited successfully *** ");
-
-				}
-			}
-		}
-		
-		System.out.println(" *** Editing of Birth encounters is complete *** ");	
-
-	}
-	
-	@RequestMapping(value = "/module/rapidsmsvalidator/voidRiskAndMatEncounters", method = RequestMethod.GET)
-	public void delete(HttpServletRequest request,
-	        HttpServletResponse response) {
-		System.out.println(" *** Initiating the voiding of Risk and Mat encounters *** ");
-		List<Patient> patients = Context.getPatientService().getAllPatients();
-		for (Patient p : patients) {
-			System.out.println(" *** Testing Patient id " + p.getPatientId() + " for Risk and Mat encounters *** ");
-			List<Encounter> encounters = Context.getEncounterService().getEncounters(p);
-			for (Encounter e : encounters) {
-				if (e.getEncounterType().getId() == 9 || e.getEncounterType().getId() == 11) {
-					System.out.println(" *** Identified encounter of type " + e.getEncounterType().getId() + " for voiding *** ");
-					System.out.println(" *** Encounter id is " + e.getEncounterId() + " *** ");
-					e.setVoided(true);
-					e.setVoidReason("replaced");
-					Context.getEncounterService().saveEncounter(e);
-					System.out.println(" *** Encounter voided successfully *** ");
-				}
-			}
-		}
-		System.out.println(" *** Voiding Risk and Mat encounters is complete *** ");
-	}	
-
-}
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.rapidsmsvalidator.web.controller;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.rapidsmsvalidator.JobMessageStatus;
+import org.openmrs.module.rapidsmsvalidator.api.RapidSMSValidatorService;
+import org.openmrs.module.rapidsmsvalidator.api.job.Job;
+import org.openmrs.module.rapidsmsvalidator.api.job.JobManager;
+import org.openmrs.module.rapidsmsvalidator.api.job.JobType;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.Histogram;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingMetrics;
+import org.openmrs.module.rapidsmsvalidator.api.metrics.ProcessingStage;
+import org.openmrs.module.rapidsmsvalidator.api.replay.ReplayOutcome;
+import org.openmrs.module.rapidsmsvalidator.api.replay.StageStats;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * The main controller.
+ */
+@Controller
+public class RapidSMSValidatorManageController {
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/manage", method = RequestMethod.GET)
+	public void manage(ModelMap model) {
+		model.addAttribute("user", Context.getAuthenticatedUser());
+		model.addAttribute("jobs", JobManager.getInstance().getJobs());
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/regenrateRapidSMSMessages", method = RequestMethod.POST)
+	public void regenerate(@RequestParam(value = "fromId", required = false) int idStartRange,
+	        @RequestParam(value = "toId", required = false) int idEndRange,
+	        @RequestParam(value = "workers", required = false) Integer workers, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		Job job = JobManager.getInstance().submit(JobType.REPLAY, idStartRange, idEndRange,
+		    workers != null ? workers : getDefaultWorkers());
+		log.info("Submitted replay job " + job.getId() + " for PostEncounterLogs " + idStartRange + " to " + idEndRange);
+		writeJson(response, toJson(job));
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/validateRapidSMSMessages", method = RequestMethod.POST)
+	public void validate(@RequestParam(value = "fromId") int fromId, @RequestParam(value = "toId") int toId,
+	                     @RequestParam(value = "workers", required = false) Integer workers,
+	                     HttpServletResponse response) throws IOException {
+		Job job = JobManager.getInstance().submit(JobType.VALIDATE, fromId, toId,
+		    workers != null ? workers : getDefaultWorkers());
+		log.info("Submitted validation job " + job.getId() + " for PostEncounterLogs " + fromId + " to " + toId);
+		writeJson(response, toJson(job));
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/editBirthEncounters", method = RequestMethod.POST)
+	public void birth(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Job job = JobManager.getInstance().submit(JobType.EDIT_BIRTH_ENCOUNTERS, 1, getMaxEncounterId(), 1);
+		log.info("Submitted job " + job.getId() + " to edit birth encounters");
+		writeJson(response, toJson(job));
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/voidRiskAndMatEncounters", method = RequestMethod.POST)
+	public void delete(@RequestParam(value = "fromId", required = false) Integer fromId,
+	                   @RequestParam(value = "toId", required = false) Integer toId, HttpServletRequest request,
+	                   HttpServletResponse response) throws IOException {
+		Job job = JobManager.getInstance().submit(JobType.VOID_RISK_AND_MAT_ENCOUNTERS, fromId != null ? fromId : 1,
+		    toId != null ? toId : getMaxEncounterId(), 1);
+		log.info("Submitted job " + job.getId() + " to void risk and mat encounters");
+		writeJson(response, toJson(job));
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/jobs", method = RequestMethod.GET)
+	public void jobs(@RequestParam(value = "id", required = false) Integer id, HttpServletResponse response)
+	        throws IOException {
+		if (id != null) {
+			Job job = JobManager.getInstance().getJob(id);
+			if (job == null)
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			else
+				writeJson(response, toJson(job));
+			return;
+		}
+		
+		List<Job> jobs = JobManager.getInstance().getJobs();
+		StringBuilder json = new StringBuilder("[");
+		for (Job job : jobs) {
+			if (json.length() > 1)
+				json.append(',');
+			json.append(toJson(job));
+		}
+		writeJson(response, json.append(']').toString());
+	}
+	
+	/**
+	 * Lists what a job did with each message, e.g. the problems a validation job found, one page at
+	 * a time.
+	 */
+	@RequestMapping(value = "/module/rapidsmsvalidator/jobMessages", method = RequestMethod.GET)
+	public void jobMessages(@RequestParam("id") int id, @RequestParam(value = "outcome", required = false) String outcome,
+	                        @RequestParam(value = "first", required = false) Integer first,
+	                        @RequestParam(value = "max", required = false) Integer max, HttpServletResponse response)
+	        throws IOException {
+		List<JobMessageStatus> statuses = Context.getService(RapidSMSValidatorService.class).getJobMessageStatuses(id,
+		    outcome, first != null ? first : 0, max != null ? max : 100);
+		StringBuilder json = new StringBuilder("[");
+		for (JobMessageStatus status : statuses) {
+			if (json.length() > 1)
+				json.append(',');
+			json.append("{\"postRequestId\":").append(status.getPostRequestId());
+			json.append(",\"outcome\":\"").append(status.getOutcome()).append('"');
+			json.append(",\"detail\":");
+			if (status.getDetail() == null)
+				json.append("null");
+			else
+				json.append('"').append(escape(status.getDetail())).append('"');
+			json.append('}');
+		}
+		writeJson(response, json.append(']').toString());
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/cancelJob", method = RequestMethod.POST)
+	public void cancelJob(@RequestParam("id") int id, HttpServletResponse response) throws IOException {
+		if (!JobManager.getInstance().cancel(id))
+			response.sendError(HttpServletResponse.SC_CONFLICT, "Job " + id + " is not running");
+		else
+			writeJson(response, toJson(JobManager.getInstance().getJob(id)));
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/resumeJob", method = RequestMethod.POST)
+	public void resumeJob(@RequestParam("id") int id, HttpServletResponse response) throws IOException {
+		Job job = JobManager.getInstance().resume(id);
+		if (job == null)
+			response.sendError(HttpServletResponse.SC_CONFLICT, "Job " + id + " can not be resumed");
+		else
+			writeJson(response, toJson(job));
+	}
+	
+	/**
+	 * Shows the {@link ProcessingMetrics}: stage latencies in microseconds, message counts by
+	 * admission type and outcome, and cache hit ratios.
+	 */
+	@RequestMapping(value = "/module/rapidsmsvalidator/metrics", method = RequestMethod.GET)
+	public void metrics(HttpServletResponse response) throws IOException {
+		ProcessingMetrics metrics = ProcessingMetrics.getInstance();
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"enabled\":").append(metrics.isEnabled());
+		json.append(",\"stages\":{");
+		for (ProcessingStage stage : ProcessingStage.values()) {
+			Histogram histogram = metrics.getHistogram(stage);
+			if (stage.ordinal() > 0)
+				json.append(',');
+			json.append('"').append(stage.name().toLowerCase()).append("\":{");
+			json.append("\"count\":").append(histogram.getCount());
+			json.append(",\"mean\":").append(toMicros(histogram.getMean()));
+			json.append(",\"p50\":").append(toMicros(histogram.getPercentile(50)));
+			json.append(",\"p90\":").append(toMicros(histogram.getPercentile(90)));
+			json.append(",\"p99\":").append(toMicros(histogram.getPercentile(99)));
+			json.append(",\"max\":").append(toMicros(histogram.getMax())).append('}');
+		}
+		json.append("},\"messages\":{");
+		boolean first = true;
+		for (Map.Entry<String, Map<ReplayOutcome, Long>> type : metrics.getMessages().entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			json.append('"').append(escape(type.getKey())).append("\":{");
+			boolean firstOutcome = true;
+			for (Map.Entry<ReplayOutcome, Long> outcome : type.getValue().entrySet()) {
+				if (!firstOutcome)
+					json.append(',');
+				firstOutcome = false;
+				json.append('"').append(outcome.getKey()).append("\":").append(outcome.getValue());
+			}
+			json.append('}');
+		}
+		json.append("},\"caches\":{");
+		first = true;
+		for (Map.Entry<String, Double> cache : metrics.getCacheHitRatios().entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			json.append('"').append(cache.getKey()).append("\":").append(Math.round(cache.getValue() * 1000) / 1000.0);
+		}
+		writeJson(response, json.append("}}").toString());
+	}
+	
+	@RequestMapping(value = "/module/rapidsmsvalidator/resetMetrics", method = RequestMethod.POST)
+	public void resetMetrics(HttpServletResponse response) throws IOException {
+		ProcessingMetrics.getInstance().reset();
+		metrics(response);
+	}
+	
+	private double toMicros(double nanos) {
+		return Math.round(nanos / 100) / 10.0;
+	}
+	
+	private int getMaxEncounterId() {
+		Integer maxEncounterId = Context.getService(RapidSMSValidatorService.class).getMaxEncounterId();
+		return maxEncounterId != null ? maxEncounterId : 0;
+	}
+	
+	private int getDefaultWorkers() {
+		String workers = Context.getAdministrationService().getGlobalProperty("rapidsmsvalidator.replay.workers", "1");
+		try {
+			return Integer.parseInt(workers.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value for rapidsmsvalidator.replay.workers: " + workers);
+			return 1;
+		}
+	}
+	
+	private String toJson(Job job) {
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"id\":").append(job.getId());
+		json.append(",\"type\":\"").append(job.getType()).append('"');
+		json.append(",\"status\":\"").append(job.getStatus()).append('"');
+		json.append(",\"fromId\":").append(job.getFromId());
+		json.append(",\"toId\":").append(job.getToId());
+		json.append(",\"checkpoint\":").append(job.getCheckpoint());
+		json.append(",\"processed\":").append(job.getProcessed());
+		json.append(",\"failed\":").append(job.getFailed());
+		json.append(",\"throughput\":").append(Math.round(job.getThroughput() * 10) / 10.0);
+		json.append(",\"progress\":").append(Math.round(job.getProgress() * 1000) / 10.0);
+		json.append(",\"eta\":").append(job.getEta());
+		json.append(",\"stages\":[");
+		List<StageStats> stages = job.getStages();
+		for (int i = 0; i < stages.size(); i++) {
+			StageStats stage = stages.get(i);
+			if (i > 0)
+				json.append(',');
+			json.append("{\"name\":\"").append(stage.getName()).append('"');
+			json.append(",\"depth\":").append(stage.getQueueDepth());
+			json.append(",\"items\":").append(stage.getItems());
+			json.append(",\"throughput\":").append(Math.round(stage.getThroughput() * 10) / 10.0);
+			json.append(",\"utilization\":").append(Math.round(stage.getUtilization() * 100)).append('}');
+		}
+		json.append(']');
+		json.append(",\"error\":");
+		if (job.getError() == null)
+			json.append("null");
+		else
+			json.append('"').append(escape(job.getError())).append('"');
+		return json.append('}').toString();
+	}
+	
+	private String escape(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				escaped.append('\\').append(c);
+			else if (c < ' ')
+				escaped.append(String.format("\\u%04x", (int) c));
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+	
+	private void writeJson(HttpServletResponse response, String json) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().write(json);
+	}
+	
+}
@@ -1,8 +0,0 @@
-<%@ include file="/WEB-INF/template/include.jsp"%>
-<%@ include file="/WEB-INF/template/header.jsp"%>
-
-<%@ include file="template/localHeader.jsp"%>
-
-<p>Hello ${user.systemId}!</p>
-
-<%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
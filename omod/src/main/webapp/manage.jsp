@@ -1,8 +1,109 @@
-<%@ include file="/WEB-INF/template/include.jsp"%>
-<%@ include file="/WEB-INF/template/header.jsp"%>
-
-<%@ include file="template/localHeader.jsp"%>
-
-<p>Hello ${user.systemId}!</p>
-
-<%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
+<%@ include file="/WEB-INF/template/include.jsp"%>
+<%@ include file="/WEB-INF/template/header.jsp"%>
+
+<%@ include file="template/localHeader.jsp"%>
+
+<p>Hello ${user.systemId}!</p>
+
+<b class="boxHeader"><spring:message code="rapidsmsvalidator.jobs.submit" /></b>
+<div class="box">
+	<form id="replayForm" action="regenrateRapidSMSMessages.form" method="post">
+		<spring:message code="rapidsmsvalidator.jobs.fromId" /> <input type="text" name="fromId" size="10" />
+		<spring:message code="rapidsmsvalidator.jobs.toId" /> <input type="text" name="toId" size="10" />
+		<spring:message code="rapidsmsvalidator.jobs.workers" /> <input type="text" name="workers" size="3" />
+		<input type="submit" value="<spring:message code="rapidsmsvalidator.regenrateRapidSMSMessages" />" />
+	</form>
+	<form action="validateRapidSMSMessages.form" method="post">
+		<spring:message code="rapidsmsvalidator.jobs.fromId" /> <input type="text" name="fromId" size="10" />
+		<spring:message code="rapidsmsvalidator.jobs.toId" /> <input type="text" name="toId" size="10" />
+		<spring:message code="rapidsmsvalidator.jobs.workers" /> <input type="text" name="workers" size="3" />
+		<input type="submit" value="<spring:message code="rapidsmsvalidator.validateRapidSMSMessages" />" />
+	</form>
+	<form action="voidRiskAndMatEncounters.form" method="post"
+	      data-confirm="<spring:message code="rapidsmsvalidator.voidRiskAndMatEncounters.confirm" />">
+		<input type="submit" value="<spring:message code="rapidsmsvalidator.voidRiskAndMatEncounters" />" />
+	</form>
+	<form action="editBirthEncounters.form" method="post"
+	      data-confirm="<spring:message code="rapidsmsvalidator.editBirthEncounters.confirm" />">
+		<input type="submit" value="<spring:message code="rapidsmsvalidator.editBirthEncounters" />" />
+	</form>
+</div>
+
+<br/>
+
+<b class="boxHeader"><spring:message code="rapidsmsvalidator.jobs" /></b>
+<div class="box">
+	<table id="jobs" cellpadding="3">
+		<thead>
+			<tr>
+				<th>#</th>
+				<th><spring:message code="rapidsmsvalidator.jobs.type" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.status" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.range" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.checkpoint" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.progress" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.processed" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.failed" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.throughput" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.eta" /></th>
+				<th><spring:message code="rapidsmsvalidator.jobs.stages" /></th>
+				<th></th>
+			</tr>
+		</thead>
+		<tbody></tbody>
+	</table>
+</div>
+
+<script type="text/javascript">
+	function formatEta(millis) {
+		if (millis < 0)
+			return "";
+		var seconds = Math.round(millis / 1000);
+		return Math.floor(seconds / 3600) + "h " + Math.floor(seconds % 3600 / 60) + "m " + seconds % 60 + "s";
+	}
+
+	function jobAction(action, id) {
+		$j.post(action + ".form", { id: id }, refreshJobs, "json");
+	}
+
+	function formatStages(stages) {
+		var text = "";
+		$j.each(stages, function(i, stage) {
+			text += (i > 0 ? "<br/>" : "") + stage.name + ": " + stage.depth + " queued, " + stage.throughput
+			        + "/s, " + stage.utilization + "% busy";
+		});
+		return text;
+	}
+
+	function refreshJobs() {
+		$j.getJSON("jobs.form", function(jobs) {
+			var rows = "";
+			$j.each(jobs, function(i, job) {
+				var actions = "";
+				if (job.status == "QUEUED" || job.status == "RUNNING")
+					actions = '<input type="button" value="<spring:message code="rapidsmsvalidator.jobs.cancel" />" onclick="jobAction(\'cancelJob\', ' + job.id + ')"/>';
+				else if (job.status == "CANCELLED" || job.status == "FAILED" || job.status == "INTERRUPTED")
+					actions = '<input type="button" value="<spring:message code="rapidsmsvalidator.jobs.resume" />" onclick="jobAction(\'resumeJob\', ' + job.id + ')"/>';
+				rows += "<tr><td>" + job.id + "</td><td>" + job.type + "</td><td>" + job.status
+				        + (job.error ? " (" + $j("<div/>").text(job.error).html() + ")" : "") + "</td><td>"
+				        + job.fromId + " - " + job.toId + "</td><td>" + job.checkpoint + "</td><td>" + job.progress
+				        + "%</td><td>" + job.processed + "</td><td>" + job.failed + "</td><td>" + job.throughput
+				        + "/s</td><td>" + formatEta(job.eta) + "</td><td>" + formatStages(job.stages) + "</td><td>" + actions + "</td></tr>";
+			});
+			$j("#jobs tbody").html(rows);
+		});
+	}
+
+	$j(document).ready(function() {
+		$j("form").submit(function() {
+			var message = $j(this).attr("data-confirm");
+			if (!message || confirm(message))
+				$j.post(this.action, $j(this).serialize(), refreshJobs, "json");
+			return false;
+		});
+		refreshJobs();
+		setInterval(refreshJobs, 2000);
+	});
+</script>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>